@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DATE;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DEGREES;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_PRESSURE;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_WEATHER_ID;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_WIND_SPEED;
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Measures how fast {@link WeatherProvider#bulkInsert} stores large numbers of rows, once by
+ * calling SQLiteDatabase#insert for every row and once through the compiled insert statement.
+ * Results are written to logcat under the "BulkInsertBenchmark" tag, in rows per second.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestBulkInsertBenchmark {
+
+    private static final String TAG = "BulkInsertBenchmark";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        deleteAllRecordsFromWeatherTable();
+    }
+
+    @After
+    public void tearDown() {
+        WeatherProvider.setCompiledInsertEnabled(true);
+        deleteAllRecordsFromWeatherTable();
+    }
+
+    @Test
+    public void benchmarkBulkInsert() {
+        benchmarkBulkInsert(10000);
+        benchmarkBulkInsert(100000);
+    }
+
+    private void benchmarkBulkInsert(int numRows) {
+        ContentValues[] weatherValues = createWeatherValues(numRows);
+
+        long insertRowsPerSecond = measure(weatherValues, false);
+        long compiledRowsPerSecond = measure(weatherValues, true);
+
+        Log.i(TAG, String.format("%d rows: insert %d rows/s, compiled statement %d rows/s",
+                numRows, insertRowsPerSecond, compiledRowsPerSecond));
+    }
+
+    /**
+     * Inserts the given rows into an empty weather table with one of the two insert paths.
+     *
+     * @return The number of rows inserted per second
+     */
+    private long measure(ContentValues[] weatherValues, boolean compiled) {
+        WeatherProvider.setCompiledInsertEnabled(compiled);
+        deleteAllRecordsFromWeatherTable();
+
+        long start = SystemClock.elapsedRealtime();
+        int insertCount = mContext.getContentResolver()
+                .bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, weatherValues);
+        long elapsedMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        assertEquals("Every row should have been inserted", weatherValues.length, insertCount);
+
+        return weatherValues.length * 1000L / elapsedMillis;
+    }
+
+    /* One row per day, so that no row replaces another */
+    private static ContentValues[] createWeatherValues(int numRows) {
+        ContentValues[] weatherValues = new ContentValues[numRows];
+        long normalizedDate = SunshineDateUtils.normalizeDate(TestUtilities.DATE_NORMALIZED);
+
+        for (int i = 0; i < numRows; i++) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_DATE, normalizedDate + i * SunshineDateUtils.DAY_IN_MILLIS);
+            values.put(COLUMN_WEATHER_ID, 800 + i % 5);
+            values.put(COLUMN_MIN_TEMP, 10.25 + i % 5);
+            values.put(COLUMN_MAX_TEMP, 22.75 + i % 9);
+            values.put(COLUMN_HUMIDITY, 50 + i % 40);
+            values.put(COLUMN_PRESSURE, 1013.12 + i % 11);
+            values.put(COLUMN_WIND_SPEED, 1.5 + i % 6);
+            values.put(COLUMN_DEGREES, i * 13 % 360);
+            weatherValues[i] = values;
+        }
+
+        return weatherValues;
+    }
+
+    private void deleteAllRecordsFromWeatherTable() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.DetailActivity;
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.utilities.NotificationUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DATE;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DEGREES;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_PRESSURE;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_WEATHER_ID;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_WIND_SPEED;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures how long it takes to query the forecast and read every column of every row, once
+ * through a cursor from SQLite and once through the {@link ForecastCursor} the forecast cache
+ * returns, for each of the projections the app queries with. Results are written to logcat
+ * under the "ForecastCursorBenchmark" tag, in nanoseconds per row.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastCursorBenchmark {
+
+    private static final String TAG = "ForecastCursorBenchmark";
+
+    private static final int DAYS = 2000;
+
+    /* The number of times every query is run and read, after one run to warm up */
+    private static final int ITERATIONS = 20;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        deleteAllRecordsFromWeatherTable();
+        mContext.getContentResolver()
+                .bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, createWeatherValues(DAYS));
+    }
+
+    @After
+    public void tearDown() {
+        WeatherProvider.setForecastCacheEnabled(true);
+        deleteAllRecordsFromWeatherTable();
+    }
+
+    @Test
+    public void benchmarkForecastCursor() {
+        benchmarkProjection("main forecast", MainActivity.MAIN_FORECAST_PROJECTION);
+        benchmarkProjection("detail", DetailActivity.WEATHER_DETAIL_PROJECTION);
+        benchmarkProjection("notification", NotificationUtils.WEATHER_NOTIFICATION_PROJECTION);
+    }
+
+    private void benchmarkProjection(String name, String[] projection) {
+        assertSameRows(projection);
+
+        long sqliteNanosPerRow = measure(projection, false);
+        long forecastCursorNanosPerRow = measure(projection, true);
+
+        Log.i(TAG, String.format("%s projection, %d rows: SQLiteCursor %d ns/row, "
+                        + "ForecastCursor %d ns/row",
+                name, DAYS, sqliteNanosPerRow, forecastCursorNanosPerRow));
+    }
+
+    /**
+     * Queries the forecast and reads every column of every row as many times as ITERATIONS says.
+     *
+     * @param cached Whether the forecast cache should answer the queries
+     * @return The average time per row, in nanoseconds
+     */
+    private long measure(String[] projection, boolean cached) {
+        WeatherProvider.setForecastCacheEnabled(cached);
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        /* Warm up, which also reads the forecast into the cache */
+        readEveryRow(query(contentResolver, projection));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            readEveryRow(query(contentResolver, projection));
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        return elapsedNanos / ((long) ITERATIONS * DAYS);
+    }
+
+    /* Both kinds of cursor should return the same strings, as the adapters don't care which */
+    private void assertSameRows(String[] projection) {
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        WeatherProvider.setForecastCacheEnabled(false);
+        Cursor sqliteCursor = query(contentResolver, projection);
+        WeatherProvider.setForecastCacheEnabled(true);
+        Cursor forecastCursor = query(contentResolver, projection);
+
+        assertEquals("Both cursors should hold every day", DAYS, sqliteCursor.getCount());
+        assertEquals("Both cursors should hold every day", DAYS, forecastCursor.getCount());
+
+        while (sqliteCursor.moveToNext() && forecastCursor.moveToNext()) {
+            for (int column = 0; column < projection.length; column++) {
+                assertEquals("Column " + projection[column] + " of row "
+                                + sqliteCursor.getPosition() + " should be the same",
+                        sqliteCursor.getString(column),
+                        forecastCursor.getString(column));
+            }
+        }
+
+        sqliteCursor.close();
+        forecastCursor.close();
+    }
+
+    private static Cursor query(ContentResolver contentResolver, String[] projection) {
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                projection,
+                null,
+                null,
+                COLUMN_DATE + " ASC");
+        assertNotNull("Cursor was null.", cursor);
+        return cursor;
+    }
+
+    private static void readEveryRow(Cursor cursor) {
+        int columnCount = cursor.getColumnCount();
+        double sum = 0;
+        while (cursor.moveToNext()) {
+            for (int column = 0; column < columnCount; column++) {
+                sum += cursor.getDouble(column);
+            }
+        }
+        cursor.close();
+        /* Keep the reads from being optimized away */
+        assertTrue(!Double.isNaN(sum));
+    }
+
+    /* One row per day, so that no row replaces another */
+    private static ContentValues[] createWeatherValues(int numRows) {
+        ContentValues[] weatherValues = new ContentValues[numRows];
+        long normalizedDate = SunshineDateUtils.normalizeDate(TestUtilities.DATE_NORMALIZED);
+
+        for (int i = 0; i < numRows; i++) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_DATE, normalizedDate + i * SunshineDateUtils.DAY_IN_MILLIS);
+            values.put(COLUMN_WEATHER_ID, 800 + i % 5);
+            values.put(COLUMN_MIN_TEMP, 10.25 + i % 5);
+            values.put(COLUMN_MAX_TEMP, 22.75 + i % 9);
+            values.put(COLUMN_HUMIDITY, 50 + i % 40);
+            values.put(COLUMN_PRESSURE, 1013.12 + i % 11);
+            values.put(COLUMN_WIND_SPEED, 1.5 + i % 6);
+            values.put(COLUMN_DEGREES, i * 13 % 360);
+            weatherValues[i] = values;
+        }
+
+        return weatherValues;
+    }
+
+    private void deleteAllRecordsFromWeatherTable() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+}
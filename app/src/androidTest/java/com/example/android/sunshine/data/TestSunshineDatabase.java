@@ -193,7 +193,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 5;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -383,15 +383,16 @@ public class TestSunshineDatabase {
 
     /**
      * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. The proper
-     * behavior for this method in our case is to simply DROP (or delete) the weather table from
-     * the database and then have the table recreated.
+     * behavior for this method when upgrading from a version without the location table is to
+     * simply DROP (or delete) the weather table from the database and then have the table
+     * recreated.
      */
     @Test
     public void testOnUpgradeBehavesCorrectly() {
 
         testInsertSingleRecordIntoWeatherTable();
 
-        dbHelper.onUpgrade(database, 13, 14);
+        dbHelper.onUpgrade(database, 3, REFLECTED_DATABASE_VERSION);
 
         /*
          * This Cursor will contain the names of each table in our database and we will use it to
@@ -436,6 +437,76 @@ public class TestSunshineDatabase {
         database.close();
     }
 
+    /**
+     * Upgrading from version 4 only adds indexes, so the weather we have stored must survive it
+     * and the summary index must exist afterwards.
+     */
+    @Test
+    public void testUpgradeFromVersion4KeepsWeather() {
+
+        testInsertSingleRecordIntoWeatherTable();
+
+        /* Turn the database back into a version 4 database */
+        database.execSQL("DROP INDEX " + WeatherDbHelper.INDEX_WEATHER_SUMMARY);
+
+        dbHelper.onUpgrade(database, 4, REFLECTED_DATABASE_VERSION);
+
+        Cursor weatherCursor = database.query(REFLECTED_TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals("Upgrading from version 4 should keep the stored weather",
+                1,
+                weatherCursor.getCount());
+        weatherCursor.close();
+
+        Cursor indexCursor = database.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{WeatherDbHelper.INDEX_WEATHER_SUMMARY});
+        assertEquals("Upgrading from version 4 should create the summary index",
+                1,
+                indexCursor.getCount());
+        indexCursor.close();
+    }
+
+    /**
+     * The forecast list reads the weather of the preferred location from today onwards, sorted by
+     * date. SQLite should answer this from the summary index alone: without reading the weather
+     * table and without sorting the rows in a temporary B-tree.
+     */
+    @Test
+    public void testTodayOnwardsQueryUsesCoveringIndex() {
+
+        String forecastQuery = "SELECT "
+                + WeatherContract.WeatherEntry.COLUMN_DATE + ", "
+                + WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", "
+                + WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+                + " FROM " + REFLECTED_TABLE_NAME
+                + " WHERE (" + WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards() + ")"
+                + " AND " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = (SELECT "
+                + WeatherContract.LocationEntry._ID + " FROM "
+                + WeatherContract.LocationEntry.TABLE_NAME + " WHERE "
+                + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?)"
+                + " ORDER BY " + WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+        Cursor planCursor = database.rawQuery("EXPLAIN QUERY PLAN " + forecastQuery,
+                new String[]{
+                        WeatherContract.WeatherEntry.getSelectionArgsForTodayOnwards()[0],
+                        TestUtilities.TEST_LOCATION_SETTING});
+
+        int detailIndex = planCursor.getColumnIndex("detail");
+        StringBuilder plan = new StringBuilder();
+        while (planCursor.moveToNext()) {
+            plan.append(planCursor.getString(detailIndex)).append('\n');
+        }
+        planCursor.close();
+
+        String queryPlan = plan.toString();
+        assertTrue("The forecast query should be answered from the summary index:\n" + queryPlan,
+                queryPlan.contains("COVERING INDEX " + WeatherDbHelper.INDEX_WEATHER_SUMMARY));
+        assertFalse("The forecast query should not need a sort:\n" + queryPlan,
+                queryPlan.contains("TEMP B-TREE"));
+    }
+
     /**
      * This method tests that our database contains all of the tables that we think it should
      * contain. Although in our case, we just have one table that we expect should be added
@@ -456,6 +527,7 @@ public class TestSunshineDatabase {
 
         /* Here, we add the name of our only table in this particular database */
         tableNameHashSet.add(REFLECTED_TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         /* Students, here is where you would add any other table names if you had them */
 //        tableNameHashSet.add(MyAwesomeSuperCoolTableName);
 //        tableNameHashSet.add(MyOtherCoolTableNameThatContainsOtherCoolData);
@@ -18,6 +18,7 @@ package com.example.android.sunshine.data;
 import android.content.ContentValues;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -35,6 +36,7 @@ import java.util.regex.Pattern;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DATE;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DEGREES;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_LOC_KEY;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_PRESSURE;
@@ -59,6 +61,10 @@ class TestUtilities {
 
     static final int BULK_INSERT_RECORDS_TO_INSERT = 10;
 
+    /* A location other than the preferred one, and the _ID test weather refers to by default */
+    static final String TEST_LOCATION_SETTING = "99705,USA";
+    static final long TEST_LOCATION_ID = 1;
+
     /**
      * Ensures there is a non empty cursor and validates the cursor's data by checking it against
      * a set of expected values. This method will then close the cursor.
@@ -128,10 +134,32 @@ class TestUtilities {
         testWeatherValues.put(COLUMN_MIN_TEMP, 65);
         testWeatherValues.put(COLUMN_WIND_SPEED, 5.5);
         testWeatherValues.put(COLUMN_WEATHER_ID, 321);
+        testWeatherValues.put(COLUMN_LOC_KEY, TEST_LOCATION_ID);
 
         return testWeatherValues;
     }
 
+    /**
+     * Adds a location to the location table of the database, so that weather can be inserted
+     * for it directly.
+     *
+     * @param database        The database to insert the location into
+     * @param locationSetting The location setting of the location
+     * @return The _ID of the new location
+     */
+    static long insertTestLocation(SQLiteDatabase database, String locationSetting) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+
+        long locationRowId = database.insert(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                null,
+                locationValues);
+
+        assertTrue("Unable to insert location into the database", locationRowId != -1);
+        return locationRowId;
+    }
+
     /**
      * Used as a convenience method to return a singleton instance of an array of ContentValues to
      * populate our database or insert using our ContentProvider's bulk insert method.
@@ -188,6 +216,7 @@ class TestUtilities {
     static class TestContentObserver extends ContentObserver {
         final HandlerThread mHT;
         boolean mContentChanged;
+        volatile int mChangeCount;
 
         private TestContentObserver(HandlerThread ht) {
             super(new Handler(ht.getLooper()));
@@ -222,6 +251,7 @@ class TestUtilities {
          */
         @Override
         public void onChange(boolean selfChange, Uri uri) {
+            mChangeCount++;
             mContentChanged = true;
         }
 
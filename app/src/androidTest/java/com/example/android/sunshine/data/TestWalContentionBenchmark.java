@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DATE;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DEGREES;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_PRESSURE;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_WEATHER_ID;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_WIND_SPEED;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures how long loader-style queries take while a sync keeps replacing the forecast. One
+ * thread replaces the stored forecast over and over, as the sync does, while several threads
+ * query it the way the forecast loader does. The p50 and p99 reader latencies are written to
+ * logcat under the "WalContentionBenchmark" tag, together with the journal mode in use.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWalContentionBenchmark {
+
+    private static final String TAG = "WalContentionBenchmark";
+
+    private static final int READER_THREADS = 4;
+    private static final int SYNC_WRITES = 50;
+
+    /* Far more days than a real forecast, so that every write holds its transaction a while */
+    private static final int DAYS_PER_WRITE = 2000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        /* The readers have to reach SQLite to contend with the writer */
+        WeatherProvider.setForecastCacheEnabled(false);
+        deleteAllRecordsFromWeatherTable();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllRecordsFromWeatherTable();
+        WeatherProvider.setForecastCacheEnabled(true);
+    }
+
+    @Test
+    public void benchmarkReadersDuringSync() throws InterruptedException {
+        final ContentResolver contentResolver = mContext.getContentResolver();
+        final ContentValues[] weatherValues = createWeatherValues(DAYS_PER_WRITE);
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, weatherValues);
+
+        final AtomicBoolean syncing = new AtomicBoolean(true);
+        final CountDownLatch readersDone = new CountDownLatch(READER_THREADS);
+        final long[][] readerLatencies = new long[READER_THREADS][];
+
+        for (int r = 0; r < READER_THREADS; r++) {
+            final int reader = r;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long[] latencies = new long[64];
+                    int count = 0;
+                    while (syncing.get()) {
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = queryForecast(contentResolver);
+                    }
+                    readerLatencies[reader] = Arrays.copyOf(latencies, count);
+                    readersDone.countDown();
+                }
+            }).start();
+        }
+
+        Uri replaceUri = WeatherContract.WeatherEntry.buildWeatherUriForReplace();
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < SYNC_WRITES; i++) {
+            contentResolver.bulkInsert(replaceUri, weatherValues);
+        }
+        long syncMillis = SystemClock.elapsedRealtime() - start;
+
+        syncing.set(false);
+        readersDone.await();
+
+        int totalReads = 0;
+        for (long[] latencies : readerLatencies) {
+            totalReads += latencies.length;
+        }
+        long[] allLatencies = new long[totalReads];
+        int offset = 0;
+        for (long[] latencies : readerLatencies) {
+            System.arraycopy(latencies, 0, allLatencies, offset, latencies.length);
+            offset += latencies.length;
+        }
+        Arrays.sort(allLatencies);
+
+        assertTrue("The readers should have completed queries during the sync", totalReads > 0);
+
+        Log.i(TAG, String.format("journal mode %s: %d writes in %d ms, %d reads, "
+                        + "reader p50 %.2f ms, p99 %.2f ms",
+                getJournalMode(),
+                SYNC_WRITES,
+                syncMillis,
+                totalReads,
+                percentile(allLatencies, 50) / 1e6,
+                percentile(allLatencies, 99) / 1e6));
+    }
+
+    /**
+     * Queries the forecast with the forecast loader's projection and reads every row.
+     *
+     * @return How long the query took, in nanoseconds
+     */
+    private static long queryForecast(ContentResolver contentResolver) {
+        long start = System.nanoTime();
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                null,
+                null,
+                COLUMN_DATE + " ASC");
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            }
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long percentile(long[] sortedValues, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, index)];
+    }
+
+    /* The journal mode is stored in the database file, so any connection can report it */
+    private String getJournalMode() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        Cursor cursor = helper.getReadableDatabase().rawQuery("PRAGMA journal_mode", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : "unknown";
+        } finally {
+            cursor.close();
+            helper.close();
+        }
+    }
+
+    /* One row per day, so that no row replaces another */
+    private static ContentValues[] createWeatherValues(int numRows) {
+        ContentValues[] weatherValues = new ContentValues[numRows];
+        long normalizedDate = SunshineDateUtils.normalizeDate(TestUtilities.DATE_NORMALIZED);
+
+        for (int i = 0; i < numRows; i++) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_DATE, normalizedDate + i * SunshineDateUtils.DAY_IN_MILLIS);
+            values.put(COLUMN_WEATHER_ID, 800 + i % 5);
+            values.put(COLUMN_MIN_TEMP, 10.25 + i % 5);
+            values.put(COLUMN_MAX_TEMP, 22.75 + i % 9);
+            values.put(COLUMN_HUMIDITY, 50 + i % 40);
+            values.put(COLUMN_PRESSURE, 1013.12 + i % 11);
+            values.put(COLUMN_WIND_SPEED, 1.5 + i % 6);
+            values.put(COLUMN_DEGREES, i * 13 % 360);
+            weatherValues[i] = values;
+        }
+
+        return weatherValues;
+    }
+
+    private void deleteAllRecordsFromWeatherTable() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+}
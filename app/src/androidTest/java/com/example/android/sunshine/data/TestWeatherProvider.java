@@ -16,6 +16,7 @@
 package com.example.android.sunshine.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
@@ -23,9 +24,14 @@ import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDebug;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.MainActivity;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -34,6 +40,7 @@ import org.junit.runner.RunWith;
 import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
 import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
@@ -68,6 +75,9 @@ import static junit.framework.Assert.fail;
 @RunWith(AndroidJUnit4.class)
 public class TestWeatherProvider {
 
+    /* The number of times testTodayOnwardsQueryHitsStatementCache restarts the forecast query */
+    private static final int LOADER_RESTARTS = 5;
+
     /* Context used to access various parts of the system */
     private final Context mContext = InstrumentationRegistry.getTargetContext();
 
@@ -79,6 +89,8 @@ public class TestWeatherProvider {
     @Before
     public void setUp() {
         deleteAllRecordsFromWeatherTable();
+        /* The rows were deleted behind the provider's back, so it mustn't answer from memory */
+        getWeatherProvider().getForecastCache().invalidateAll();
     }
 
     /**
@@ -168,8 +180,13 @@ public class TestWeatherProvider {
         WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
         SQLiteDatabase database = dbHelper.getWritableDatabase();
 
+        /* The weather at CONTENT_URI is that of the preferred location */
+        long locationRowId = TestUtilities.insertTestLocation(database,
+                SunshinePreferences.getPreferredWeatherLocation(mContext));
+
         /* Obtain weather values from TestUtilities */
         ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
+        testWeatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationRowId);
 
         /* Insert ContentValues into database and get a row ID back */
         long weatherRowId = database.insert(
@@ -423,6 +440,487 @@ public class TestWeatherProvider {
         shouldBeEmptyCursor.close();
     }
 
+    /**
+     * This test merges a forecast into a table that already holds the same forecast, except that
+     * one day's weather has changed and the first day has expired. Only the changed day should be
+     * written, the expired day should be removed and everything else should be left alone.
+     * <p>
+     * Potential causes for failure:
+     * <p>
+     *   1) Within {@link WeatherProvider#bulkInsert(Uri, ContentValues[])}, the
+     *    {@link WeatherContract#PARAM_WRITE_MODE} query parameter isn't handled.
+     * <p>
+     *   2) Days whose weather did not change were written again, or expired days were kept.
+     */
+    @Test
+    public void testMergeOnlyWritesChangedDays() {
+
+        ContentValues[] storedValues = createBulkInsertTestWeatherValues();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, storedValues);
+
+        /* The new forecast starts a day later and has a different high for its first day */
+        ContentValues[] mergedValues = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT - 1];
+        for (int i = 0; i < mergedValues.length; i++) {
+            mergedValues[i] = new ContentValues(storedValues[i + 1]);
+        }
+        mergedValues[0].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 100);
+
+        int writeCount = contentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.buildWeatherUriForMerge(),
+                mergedValues);
+
+        String onlyChangedDayShouldBeWritten =
+                "Merging a forecast should only write the days that changed";
+        assertEquals(onlyChangedDayShouldBeWritten, 1, writeCount);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull("Cursor was null.", cursor);
+
+        String expiredDayShouldBeDeleted =
+                "Days that are no longer part of the forecast should be deleted by a merge";
+        assertEquals(expiredDayShouldBeDeleted, mergedValues.length, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < mergedValues.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testMergeOnlyWritesChangedDays. Error validating WeatherEntry " + i,
+                    cursor,
+                    mergedValues[i]);
+        }
+
+        cursor.close();
+    }
+
+    /**
+     * This test replaces a stored forecast with a new one using the replace write mode. The old
+     * rows should be gone, the new ones stored, and observers should have been notified exactly
+     * once for every day that was deleted or inserted.
+     * <p>
+     * Potential causes for failure:
+     * <p>
+     *   1) Within {@link WeatherProvider#bulkInsert(Uri, ContentValues[])}, the
+     *    {@link WeatherContract#WRITE_MODE_REPLACE} write mode isn't handled.
+     * <p>
+     *   2) notifyChange is called for the whole forecast as well as for the days, or not for the
+     *    days that were deleted.
+     */
+    @Test
+    public void testReplaceNotifiesOncePerChangedDay() {
+
+        ContentValues[] storedValues = createBulkInsertTestWeatherValues();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, storedValues);
+
+        /* The new forecast starts a day later, so none of its days overlap the first one */
+        ContentValues[] replacementValues = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT];
+        for (int i = 0; i < replacementValues.length; i++) {
+            replacementValues[i] = new ContentValues(storedValues[i]);
+            replacementValues[i].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    storedValues[i].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)
+                            + DateUtils.DAY_IN_MILLIS * BULK_INSERT_RECORDS_TO_INSERT);
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                true,
+                weatherObserver);
+
+        int insertCount = contentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.buildWeatherUriForReplace(),
+                replacementValues);
+
+        /* Give any (unwanted) second notification the time to arrive before counting */
+        SystemClock.sleep(500);
+        weatherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(weatherObserver);
+
+        /* None of the new days replaced an old one, so every old and every new day changed */
+        assertEquals("Replacing a forecast should notify observers once for every changed day",
+                2 * BULK_INSERT_RECORDS_TO_INSERT,
+                weatherObserver.mChangeCount);
+
+        String expectedAndActualInsertedRecordCountDoNotMatch =
+                "Number of expected records inserted does not match actual inserted record count";
+        assertEquals(expectedAndActualInsertedRecordCountDoNotMatch,
+                BULK_INSERT_RECORDS_TO_INSERT,
+                insertCount);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals("Replacing a forecast should remove all of the old rows",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testReplaceNotifiesOncePerChangedDay. Error validating WeatherEntry " + i,
+                    cursor,
+                    replacementValues[i]);
+        }
+
+        cursor.close();
+    }
+
+    /**
+     * This test merges a forecast in which one day changed and one day expired, the way a sync
+     * does, and counts the notifications the observers of the forecast and of single days get.
+     * The forecast should hear about both days in one burst, the changed day once, and an
+     * unchanged day not at all.
+     * <p>
+     * Potential causes for failure:
+     * <p>
+     *   1) The whole forecast URI is notified, which also notifies every single day.
+     * <p>
+     *   2) Days whose weather didn't change are notified.
+     */
+    @Test
+    public void testMergeNotifiesOnlyChangedDays() {
+
+        ContentValues[] storedValues = createBulkInsertTestWeatherValues();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, storedValues);
+
+        /* The new forecast starts a day later and has a different high for its first day */
+        ContentValues[] mergedValues = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT - 1];
+        for (int i = 0; i < mergedValues.length; i++) {
+            mergedValues[i] = new ContentValues(storedValues[i + 1]);
+        }
+        mergedValues[0].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 100);
+
+        long changedDate = mergedValues[0].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        long unchangedDate = mergedValues[1].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+
+        TestUtilities.TestContentObserver forecastObserver =
+                TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver changedDayObserver =
+                TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver unchangedDayObserver =
+                TestUtilities.getTestContentObserver();
+
+        /* Cursors register for descendants, so do the observers here */
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                true,
+                forecastObserver);
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(changedDate),
+                true,
+                changedDayObserver);
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(unchangedDate),
+                true,
+                unchangedDayObserver);
+
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.buildWeatherUriForMerge(),
+                mergedValues);
+
+        /* Give any (unwanted) extra notification the time to arrive before counting */
+        SystemClock.sleep(500);
+        forecastObserver.waitForNotificationOrFail();
+        changedDayObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(forecastObserver);
+        contentResolver.unregisterContentObserver(changedDayObserver);
+        contentResolver.unregisterContentObserver(unchangedDayObserver);
+        unchangedDayObserver.mHT.quit();
+
+        assertEquals("The forecast should be notified for the changed and the expired day",
+                2,
+                forecastObserver.mChangeCount);
+        assertEquals("The changed day should be notified exactly once",
+                1,
+                changedDayObserver.mChangeCount);
+        assertEquals("A day whose weather didn't change should not be notified",
+                0,
+                unchangedDayObserver.mChangeCount);
+    }
+
+    /**
+     * This test stores a forecast for the preferred location and another one for a second
+     * location. Each location should only see its own weather, and replacing the forecast of one
+     * location should leave the other one alone. Observers of the preferred location's weather,
+     * such as the forecast list, should not hear about the other location's write.
+     * <p>
+     * Potential causes for failure:
+     * <p>
+     *   1) Weather queried at {@link WeatherContract.WeatherEntry#CONTENT_URI} isn't restricted
+     *    to the preferred location.
+     * <p>
+     *   2) A replace deletes the weather of every location, rather than only its own.
+     * <p>
+     *   3) The other location's days are notified at descendants of
+     *    {@link WeatherContract.WeatherEntry#CONTENT_URI}.
+     */
+    @Test
+    public void testLocationsAreStoredSeparately() {
+
+        ContentValues[] preferredValues = createBulkInsertTestWeatherValues();
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, preferredValues);
+
+        /* The other location has the same dates, but a different high every day */
+        ContentValues[] otherValues = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT];
+        for (int i = 0; i < otherValues.length; i++) {
+            otherValues[i] = new ContentValues(preferredValues[i]);
+            otherValues[i].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 100 + i);
+        }
+
+        /* Observe both locations the way their cursors do, for descendants */
+        TestUtilities.TestContentObserver preferredObserver =
+                TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver otherObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                true,
+                preferredObserver);
+        contentResolver.registerContentObserver(
+                WeatherContract.LocationEntry
+                        .buildWeatherNotificationUri(TestUtilities.TEST_LOCATION_SETTING),
+                true,
+                otherObserver);
+
+        Uri otherLocationUri = WeatherContract.WeatherEntry
+                .buildWeatherUriWithLocation(TestUtilities.TEST_LOCATION_SETTING);
+        int replaceCount = contentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.buildWeatherUriWithWriteMode(otherLocationUri,
+                        WeatherContract.WRITE_MODE_REPLACE),
+                otherValues);
+
+        /* Give any (unwanted) notification of the preferred location the time to arrive */
+        SystemClock.sleep(500);
+        otherObserver.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(preferredObserver);
+        contentResolver.unregisterContentObserver(otherObserver);
+        preferredObserver.mHT.quit();
+
+        assertEquals("The forecast list should not reload for another location's weather",
+                0,
+                preferredObserver.mChangeCount);
+        assertEquals("The other location should be notified once for every day it wrote",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                otherObserver.mChangeCount);
+
+        assertEquals("Every day of the other location should have been inserted",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                replaceCount);
+
+        Cursor preferredCursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        Cursor otherCursor = contentResolver.query(
+                otherLocationUri,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull("Cursor was null.", preferredCursor);
+        assertNotNull("Cursor was null.", otherCursor);
+        assertEquals("The preferred location should only see its own weather",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                preferredCursor.getCount());
+        assertEquals("The other location should only see its own weather",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                otherCursor.getCount());
+
+        preferredCursor.moveToFirst();
+        otherCursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            TestUtilities.validateCurrentRecord(
+                    "testLocationsAreStoredSeparately. Error validating preferred entry " + i,
+                    preferredCursor,
+                    preferredValues[i]);
+            TestUtilities.validateCurrentRecord(
+                    "testLocationsAreStoredSeparately. Error validating other entry " + i,
+                    otherCursor,
+                    otherValues[i]);
+            preferredCursor.moveToNext();
+            otherCursor.moveToNext();
+        }
+
+        preferredCursor.close();
+        otherCursor.close();
+    }
+
+    /**
+     * The forecast loader queries for the weather from today onwards every time it is restarted.
+     * As today's date is a selection argument rather than part of the SQL, every one of those
+     * queries should find the statement the first one prepared in SQLite's statement cache.
+     * <p>
+     * Potential causes for failure:
+     * <p>
+     *   1) {@link WeatherContract.WeatherEntry#getSqlSelectForTodayOnwards()} embeds the date in
+     *    the selection, so the SQL changes every day.
+     * <p>
+     *   2) WeatherProvider builds a different selection for every query.
+     */
+    @Test
+    public void testTodayOnwardsQueryHitsStatementCache() {
+
+        String todayOnwardsSelection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
+        String[] todayOnwardsArgs = WeatherContract.WeatherEntry.getSelectionArgsForTodayOnwards();
+        assertFalse("The selection should not contain today's date",
+                todayOnwardsSelection.contains(todayOnwardsArgs[0]));
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+
+        /* The queries have to reach SQLite for its statement cache to be used */
+        WeatherProvider.setForecastCacheEnabled(false);
+        long cacheHits;
+        try {
+            /* The first query prepares the statement */
+            queryTodayOnwards(contentResolver);
+            long cacheHitsBefore = getWeatherStatementCacheHits();
+
+            for (int i = 0; i < LOADER_RESTARTS; i++) {
+                queryTodayOnwards(contentResolver);
+            }
+
+            cacheHits = getWeatherStatementCacheHits() - cacheHitsBefore;
+        } finally {
+            WeatherProvider.setForecastCacheEnabled(true);
+        }
+        assertTrue("Every restart should reuse the prepared statement, but there were only "
+                        + cacheHits + " statement cache hits for " + LOADER_RESTARTS + " restarts",
+                cacheHits >= LOADER_RESTARTS);
+    }
+
+    /**
+     * Restarting the forecast loader should be answered from the forecast cache rather than
+     * SQLite, and writing the weather should make the next query see the new weather.
+     * <p>
+     * Potential causes for failure:
+     * <p>
+     *   1) WeatherProvider doesn't recognize the loader's query as one the cache can answer.
+     * <p>
+     *   2) A write doesn't invalidate the cached weather of its location.
+     */
+    @Test
+    public void testForecastQueriesAreServedFromCache() {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        ContentValues[] weatherValues = createBulkInsertTestWeatherValues();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, weatherValues);
+
+        ForecastCache forecastCache = getWeatherProvider().getForecastCache();
+
+        /* The first query reads the weather into the cache */
+        queryTodayOnwards(contentResolver);
+        long hitsBefore = forecastCache.getHitCount();
+        long missesBefore = forecastCache.getMissCount();
+
+        for (int i = 0; i < LOADER_RESTARTS; i++) {
+            queryTodayOnwards(contentResolver);
+        }
+
+        assertEquals("Every restart should have been answered from the cache",
+                LOADER_RESTARTS,
+                forecastCache.getHitCount() - hitsBefore);
+        assertEquals("No restart should have read the weather again",
+                missesBefore,
+                forecastCache.getMissCount());
+        assertTrue("The cache should hold the weather", forecastCache.getBytesHeld() > 0);
+
+        /* Replace the forecast with one that has a different high every day */
+        for (int i = 0; i < weatherValues.length; i++) {
+            weatherValues[i].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 100 + i);
+        }
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.buildWeatherUriForReplace(),
+                weatherValues);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals("The cached weather should have been read again after the write",
+                missesBefore + 1,
+                forecastCache.getMissCount());
+        assertEquals("Every day of the new forecast should have been returned",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            TestUtilities.validateCurrentRecord(
+                    "testForecastQueriesAreServedFromCache. Error validating entry " + i,
+                    cursor,
+                    weatherValues[i]);
+            cursor.moveToNext();
+        }
+
+        cursor.close();
+    }
+
+    /**
+     * @return The WeatherProvider running in this process
+     */
+    private WeatherProvider getWeatherProvider() {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.WeatherEntry.CONTENT_URI);
+        assertNotNull("The WeatherProvider should be registered", client);
+        try {
+            return (WeatherProvider) client.getLocalContentProvider();
+        } finally {
+            client.release();
+        }
+    }
+
+    /**
+     * Runs the query the forecast loader runs, as a restarted loader would.
+     *
+     * @param contentResolver The ContentResolver to query through
+     */
+    private static void queryTodayOnwards(ContentResolver contentResolver) {
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                WeatherContract.WeatherEntry.getSelectionArgsForTodayOnwards(),
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull("Cursor was null.", cursor);
+        /* getCount runs the query */
+        cursor.getCount();
+        cursor.close();
+    }
+
+    /**
+     * @return The number of statement cache hits of every connection to the weather database
+     */
+    private static long getWeatherStatementCacheHits() {
+        long cacheHits = 0;
+        for (SQLiteDebug.DbStats dbStats : SQLiteDebug.getDatabaseInfo().dbStats) {
+            if (dbStats.dbName.contains(WeatherDbHelper.DATABASE_NAME) && dbStats.cache != null) {
+                /* The statement cache stats read "hits/misses/size" */
+                cacheHits += Long.parseLong(dbStats.cache.split("/")[0]);
+            }
+        }
+        return cacheHits;
+    }
+
     /**
      * This method will clear all rows from the weather table in our database.
      * <p>
@@ -442,6 +940,7 @@ public class TestWeatherProvider {
 
         /* The delete method deletes all of the desired rows from the table, not the table itself */
         database.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        database.delete(WeatherContract.LocationEntry.TABLE_NAME, null, null);
 
         /* Always close the database when you're through with it */
         database.close();
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Replays a recorded week of forecasts against the fixed sync interval Sunshine used to have and
+ * against {@link AdaptiveSyncScheduler}, and compares how many fetches each of them makes. The
+ * recording holds the forecast the server would have returned at every hour of the week: it is
+ * calm most of the time, apart from a stretch of unsettled weather in which the forecast changes
+ * every hour. The results are written to logcat under the "SyncScheduleSimulation" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestAdaptiveSyncScheduler {
+
+    private static final String TAG = "SyncScheduleSimulation";
+
+    private static final int DAYS_IN_FORECAST = 14;
+    private static final int HOURS_RECORDED = 7 * 24;
+
+    /* The hours of the recording in which the weather is unsettled */
+    private static final int VOLATILE_FROM_HOUR = 72;
+    private static final int VOLATILE_TO_HOUR = 96;
+
+    private static final int SECONDS_PER_HOUR = (int) TimeUnit.HOURS.toSeconds(1);
+
+    @Test
+    public void testIntervalAdaptsToChanges() {
+        int interval = AdaptiveSyncScheduler.DEFAULT_INTERVAL_SECONDS;
+
+        assertTrue("A sync that changed nothing should lengthen the interval",
+                AdaptiveSyncScheduler.nextIntervalSeconds(interval, 0, DAYS_IN_FORECAST)
+                        > interval);
+        assertTrue("A sync that changed most of the forecast should shorten the interval",
+                AdaptiveSyncScheduler.nextIntervalSeconds(interval, DAYS_IN_FORECAST,
+                        DAYS_IN_FORECAST) < interval);
+        assertEquals("A sync that only added the next day should keep the interval",
+                interval,
+                AdaptiveSyncScheduler.nextIntervalSeconds(interval, 1, DAYS_IN_FORECAST));
+
+        assertEquals("The interval should never grow beyond the maximum",
+                AdaptiveSyncScheduler.MAX_INTERVAL_SECONDS,
+                AdaptiveSyncScheduler.nextIntervalSeconds(
+                        AdaptiveSyncScheduler.MAX_INTERVAL_SECONDS, 0, DAYS_IN_FORECAST));
+        assertEquals("The interval should never shrink below the minimum",
+                AdaptiveSyncScheduler.MIN_INTERVAL_SECONDS,
+                AdaptiveSyncScheduler.nextIntervalSeconds(
+                        AdaptiveSyncScheduler.MIN_INTERVAL_SECONDS, DAYS_IN_FORECAST,
+                        DAYS_IN_FORECAST));
+    }
+
+    @Test
+    public void simulateRecordedWeek() {
+        Replay fixed = replay(false);
+        Replay adaptive = replay(true);
+
+        Log.i(TAG, String.format("fixed: %d fetches (%d while volatile), %d stale hours; "
+                        + "adaptive: %d fetches (%d while volatile), %d stale hours; "
+                        + "%d fetches saved",
+                fixed.mFetches, fixed.mVolatileFetches, fixed.mStaleHours,
+                adaptive.mFetches, adaptive.mVolatileFetches, adaptive.mStaleHours,
+                fixed.mFetches - adaptive.mFetches));
+
+        assertTrue("The adaptive schedule should fetch less over the week",
+                adaptive.mFetches < fixed.mFetches);
+        assertTrue("The adaptive schedule should fetch more often while the weather is unsettled",
+                adaptive.mVolatileFetches > fixed.mVolatileFetches);
+        assertTrue("The adaptive schedule shouldn't show an outdated forecast for longer",
+                adaptive.mStaleHours <= fixed.mStaleHours);
+    }
+
+    /**
+     * Replays the recording, fetching whenever the schedule says so.
+     *
+     * @param adaptive Whether to use the adaptive schedule or the fixed interval
+     * @return What happened during the replay
+     */
+    private static Replay replay(boolean adaptive) {
+        Replay replay = new Replay();
+        int intervalSeconds = AdaptiveSyncScheduler.DEFAULT_INTERVAL_SECONDS;
+
+        /* The forecast we stored, by day of the recording */
+        int[] stored = new int[HOURS_RECORDED / 24 + DAYS_IN_FORECAST];
+        long nextFetchSecond = 0;
+
+        for (int hour = 0; hour < HOURS_RECORDED; hour++) {
+            if ((long) hour * SECONDS_PER_HOUR >= nextFetchSecond) {
+                int daysChanged = 0;
+                int today = hour / 24;
+                for (int day = today; day < today + DAYS_IN_FORECAST; day++) {
+                    int weather = recordedWeather(hour, day);
+                    if (stored[day] != weather) {
+                        stored[day] = weather;
+                        daysChanged++;
+                    }
+                }
+
+                replay.mFetches++;
+                if (hour >= VOLATILE_FROM_HOUR && hour < VOLATILE_TO_HOUR) {
+                    replay.mVolatileFetches++;
+                }
+
+                if (adaptive) {
+                    intervalSeconds = AdaptiveSyncScheduler.nextIntervalSeconds(
+                            intervalSeconds, daysChanged, DAYS_IN_FORECAST);
+                }
+                nextFetchSecond = (long) hour * SECONDS_PER_HOUR + intervalSeconds;
+            }
+
+            if (stored[hour / 24] != recordedWeather(hour, hour / 24)) {
+                replay.mStaleHours++;
+            }
+        }
+
+        return replay;
+    }
+
+    /**
+     * The recording: the weather the server forecast for a day at a given hour. Outside of the
+     * unsettled stretch, the forecast for a day never changes.
+     */
+    private static int recordedWeather(int hour, int day) {
+        int weather = 800 + day % 5;
+        if (hour >= VOLATILE_FROM_HOUR && hour < VOLATILE_TO_HOUR) {
+            weather = 500 + (day * 31 + hour * 17) % 100;
+        } else if (hour >= VOLATILE_TO_HOUR) {
+            /* The storm left the forecast different from what it was before */
+            weather += 100;
+        }
+        return weather;
+    }
+
+    private static final class Replay {
+        int mFetches;
+        int mVolatileFetches;
+
+        /* Hours in which the stored forecast for today differed from the server's */
+        int mStaleHours;
+    }
+}
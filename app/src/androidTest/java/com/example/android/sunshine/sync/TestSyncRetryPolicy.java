@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.utilities.HttpStatusException;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.ResponseBuffer;
+import com.example.android.sunshine.utils.StubHttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Runs {@link SyncRetryPolicy} against a stub HTTP server on the device, which answers each
+ * request with the next status of a script, and checks {@link SyncCircuitBreaker}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestSyncRetryPolicy {
+
+    private static final String FORECAST_BODY = "{\"list\":[]}";
+
+    /* Short delays, so the test doesn't wait for the ones the sync uses */
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_DELAY_MILLIS = 10;
+    private static final long MAX_DELAY_MILLIS = 40;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StubHttpServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StubHttpServer(FORECAST_BODY);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void testRetriesServerErrors() throws IOException {
+        mServer.setScript(503, 503, 200);
+
+        ResponseBuffer response = download(newPolicy(), new SyncCancellationSignal());
+        assertNotNull("The download should succeed once the server recovers", response);
+        try {
+            assertEquals(FORECAST_BODY, response.toUtf8String());
+        } finally {
+            response.recycle();
+        }
+        assertEquals("Each failure should have been retried", 3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() {
+        mServer.setScript(500);
+        SyncRetryPolicy policy = newPolicy();
+
+        try {
+            download(policy, new SyncCancellationSignal());
+            fail("The download should fail while the server does");
+        } catch (IOException e) {
+            assertEquals(SyncFailure.SERVER_ERROR, SyncFailure.fromDownload(e));
+        }
+        assertEquals(MAX_ATTEMPTS, mServer.getRequestCount());
+        assertEquals(MAX_ATTEMPTS - 1, policy.getRetryCount());
+    }
+
+    @Test
+    public void testDoesNotRetryClientErrors() {
+        mServer.setScript(404, 200);
+
+        try {
+            download(newPolicy(), new SyncCancellationSignal());
+            fail("The download should fail for a location the server doesn't know");
+        } catch (IOException e) {
+            assertTrue(e instanceof HttpStatusException);
+            assertEquals(SyncFailure.CLIENT_ERROR, SyncFailure.fromDownload(e));
+        }
+        assertEquals("A client error should not be retried", 1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void testBackoffGrowsAndIsCapped() {
+        SyncRetryPolicy policy = newPolicy();
+        for (int retry = 1; retry <= 5; retry++) {
+            long expected = Math.min(BASE_DELAY_MILLIS << (retry - 1), MAX_DELAY_MILLIS);
+            long delay = policy.getBackoffMillis(retry);
+            assertTrue("Retry " + retry + " waited " + delay + " ms",
+                    delay >= expected / 2 && delay <= expected);
+        }
+    }
+
+    @Test
+    public void testCircuitBreakerOpensAndRecovers() throws InterruptedException {
+        long coolDownMillis = 100;
+        SyncCircuitBreaker breaker = new SyncCircuitBreaker(3, coolDownMillis);
+
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertTrue("The breaker should stay closed below the threshold", breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertFalse("The breaker should open at the threshold", breaker.allowRequest());
+        assertEquals(1, breaker.getOpenCount());
+
+        Thread.sleep(coolDownMillis);
+        assertTrue("The breaker should let a request through after the cool-down",
+                breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertFalse("A failure after the cool-down should start it over", breaker.allowRequest());
+
+        Thread.sleep(coolDownMillis);
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        assertEquals(1, breaker.getOpenCount());
+    }
+
+    @Test
+    public void testCircuitBreakerLetsOneTrialThrough() throws InterruptedException {
+        long coolDownMillis = 100;
+        final SyncCircuitBreaker breaker = new SyncCircuitBreaker(1, coolDownMillis);
+        breaker.recordFailure();
+        Thread.sleep(coolDownMillis);
+
+        /* Every location of a sync asks at once, as the sync's threads do */
+        final int locationCount = 4;
+        final AtomicInteger allowedCount = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] locations = new Thread[locationCount];
+        for (int i = 0; i < locationCount; i++) {
+            locations[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (breaker.allowRequest()) {
+                        allowedCount.incrementAndGet();
+                    }
+                }
+            });
+            locations[i].start();
+        }
+        start.countDown();
+        for (Thread location : locations) {
+            location.join();
+        }
+        assertEquals("Only one trial should go to a server that may still be down",
+                1, allowedCount.get());
+        assertFalse("The breaker should stay open while the trial runs", breaker.allowRequest());
+
+        breaker.recordAbandoned();
+        assertTrue("An abandoned trial should let the next request be the trial",
+                breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertFalse("A failed trial should start the cool-down over", breaker.allowRequest());
+
+        Thread.sleep(coolDownMillis);
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertTrue("A successful trial should close the breaker", breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+        assertEquals(1, breaker.getOpenCount());
+    }
+
+    private static SyncRetryPolicy newPolicy() {
+        return new SyncRetryPolicy(MAX_ATTEMPTS, BASE_DELAY_MILLIS, MAX_DELAY_MILLIS);
+    }
+
+    private ResponseBuffer download(SyncRetryPolicy policy,
+                                    final SyncCancellationSignal cancellationSignal)
+            throws IOException {
+        final URL url = mServer.getUrl();
+        return policy.execute(new SyncRetryPolicy.Attempt<ResponseBuffer>() {
+            @Override
+            public ResponseBuffer run() throws IOException {
+                return NetworkUtils.getConditionalResponseBufferFromHttpUrl(
+                        mContext, url, cancellationSignal);
+            }
+        }, cancellationSignal);
+    }
+}
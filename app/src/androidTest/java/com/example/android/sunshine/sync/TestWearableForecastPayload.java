@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks the bytes of {@link WearableForecastPayload}, which the watch face decodes with its own
+ * copy of the format.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWearableForecastPayload {
+
+    private static final long FIRST_DAY_OF_EPOCH = 17000;
+
+    @Test
+    public void testEncodesDeltas() {
+        WearableForecastPayload payload = new WearableForecastPayload();
+        payload.reset(FIRST_DAY_OF_EPOCH, false);
+        assertTrue(payload.addDay(800, 21.0, 12.5));
+        assertTrue(payload.addDay(801, 19.4, 11.0));
+
+        byte[] expected = {
+                /* Version, flags, the first day and the day count */
+                2, 0, (byte) 0xE8, (byte) 0x84, 0x01, 2,
+                /* 800, 21° and a spread of 8°, as 12.5° rounds to 13° */
+                (byte) 0xC0, 0x0C, 0x2A, 0x10,
+                /* One more than 800, 2° less than 21°, and a spread of 8° */
+                0x02, 0x03, 0x10
+        };
+        assertPayload(expected, payload);
+    }
+
+    @Test
+    public void testRoundsTemperaturesAsThePhoneShowsThem() {
+        WearableForecastPayload payload = new WearableForecastPayload();
+        payload.reset(FIRST_DAY_OF_EPOCH, false);
+        /* Shown as 2° and -3°; rounding to tenths first would have made the high 3° */
+        assertTrue(payload.addDay(800, 2.46, -2.5));
+
+        byte[] expected = {
+                2, 0, (byte) 0xE8, (byte) 0x84, 0x01, 1,
+                /* 800, 2° and a spread of 5° */
+                (byte) 0xC0, 0x0C, 0x04, 0x0A
+        };
+        assertPayload(expected, payload);
+    }
+
+    @Test
+    public void testHoldsAtMostMaxDays() {
+        WearableForecastPayload payload = new WearableForecastPayload();
+        payload.reset(FIRST_DAY_OF_EPOCH, true);
+        for (int day = 0; day < WearableForecastPayload.MAX_DAYS; day++) {
+            assertTrue(payload.addDay(500 + day % 3, 70 + day, 55 - day));
+        }
+        assertFalse("A full payload should refuse more days", payload.addDay(800, 70, 50));
+        assertEquals(WearableForecastPayload.MAX_DAYS, payload.getDayCount());
+
+        byte[] bytes = payload.toByteArray();
+        assertEquals(WearableForecastPayload.FLAG_FAHRENHEIT, bytes[1]);
+        assertTrue("A week should fit in a few bytes a day, but took " + bytes.length,
+                bytes.length <= 6 + WearableForecastPayload.MAX_DAYS * 5);
+    }
+
+    private static void assertPayload(byte[] expected, WearableForecastPayload payload) {
+        byte[] actual = payload.toByteArray();
+        assertTrue("Expected " + Arrays.toString(expected) + " but was "
+                + Arrays.toString(actual), Arrays.equals(expected, actual));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utils.StubHttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.URL;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Runs the conditional requests of {@link NetworkUtils} against a stub HTTP server that answers
+ * 304 Not Modified whenever it gets its ETag back. The validators saved on an earlier day must
+ * not be sent, as the forecast they describe was dated from that day.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestConditionalRequests {
+
+    private static final String FORECAST_BODY = "{\"list\":[]}";
+    private static final String ETAG = "\"forecast-1\"";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private StubHttpServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        SunshinePreferences.clearResponseValidators(mContext);
+        mServer = new StubHttpServer(FORECAST_BODY);
+        mServer.setEtag(ETAG);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+        SunshinePreferences.clearResponseValidators(mContext);
+    }
+
+    @Test
+    public void testNotModifiedOnTheDayTheForecastWasDated() throws IOException {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        download(today).recycle();
+
+        ResponseBuffer response = download(today);
+        try {
+            assertTrue("The server should answer 304 to the validators of today's forecast",
+                    response.isNotModified());
+        } finally {
+            response.recycle();
+        }
+        assertEquals(1, mServer.getConditionalRequestCount());
+    }
+
+    @Test
+    public void testDownloadsAgainOnALaterDay() throws IOException {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        long yesterday = today - SunshineDateUtils.DAY_IN_MILLIS;
+
+        /* The forecast was stored yesterday, and the server still has the same one */
+        download(yesterday).recycle();
+
+        ResponseBuffer response = download(today);
+        try {
+            assertFalse("The forecast should be downloaded again to date it from today",
+                    response.isNotModified());
+            assertEquals(FORECAST_BODY, response.toUtf8String());
+        } finally {
+            response.recycle();
+        }
+        assertEquals("Yesterday's validators should not have been sent",
+                0, mServer.getConditionalRequestCount());
+
+        /* Now that it is dated from today, the server may answer 304 again */
+        response = download(today);
+        try {
+            assertTrue(response.isNotModified());
+        } finally {
+            response.recycle();
+        }
+    }
+
+    /**
+     * Downloads the forecast the way the sync does, and saves its validators as those of a
+     * forecast dated from the given day if it was downloaded in full.
+     */
+    private ResponseBuffer download(long datedFrom) throws IOException {
+        URL url = mServer.getUrl();
+        ResponseBuffer response =
+                NetworkUtils.getConditionalResponseBufferFromHttpUrl(mContext, url);
+        assertNotNull(response);
+        if (!response.isNotModified()) {
+            NetworkUtils.saveResponseValidators(mContext, url, response, datedFrom);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.SunshinePreferences;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Compares the streaming forecast parser with the original DOM parser in
+ * {@link OpenWeatherJsonUtils}. The first tests make sure both parsers honour the same output
+ * contract, and the benchmark reports the latency and allocations of each path for a two week
+ * and a full year forecast. Results are written to logcat under the "ForecastParserBenchmark" tag.
+ * <p>
+ * These run as instrumentation tests because both parsers rely on classes (org.json and
+ * android.util.JsonReader) that are only available on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestOpenWeatherJsonParsing {
+
+    private static final String TAG = "ForecastParserBenchmark";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int WARM_UP_ITERATIONS = 5;
+    private static final int BENCHMARK_ITERATIONS = 20;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    /**
+     * Both parsers store the coordinates of the city as a side effect. We don't want the fake
+     * coordinates from our test JSON to leak into the app, so we remove them after each test.
+     */
+    @After
+    public void tearDown() {
+        SunshinePreferences.resetLocationCoordinates(mContext);
+    }
+
+    @Test
+    public void testStreamingParserMatchesDomParser() throws Exception {
+        String forecastJson = createForecastJson(14);
+
+        ContentValues[] domValues =
+                OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, forecastJson);
+        ContentValues[] streamingValues = OpenWeatherJsonUtils
+                .getWeatherContentValuesFromStream(mContext, toStream(forecastJson));
+
+        assertNotNull("DOM parser returned null for a valid forecast", domValues);
+        assertNotNull("Streaming parser returned null for a valid forecast", streamingValues);
+        assertEquals("Parsers returned a different number of days",
+                domValues.length,
+                streamingValues.length);
+
+        /*
+         * The streaming parser fills a ForecastBatch, which stores humidity as a double where the
+         * DOM parser stores an int, so the values are compared as numbers rather than objects.
+         */
+        for (int i = 0; i < domValues.length; i++) {
+            assertEquals("Parsers returned a different number of columns for day " + i,
+                    domValues[i].size(),
+                    streamingValues[i].size());
+            for (String column : domValues[i].keySet()) {
+                assertEquals("Parsers disagree on " + column + " for day " + i,
+                        domValues[i].getAsDouble(column),
+                        streamingValues[i].getAsDouble(column));
+            }
+        }
+    }
+
+    @Test
+    public void testForecastBatchMatchesDomParser() throws Exception {
+        String forecastJson = createForecastJson(14);
+
+        ContentValues[] domValues =
+                OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, forecastJson);
+        ForecastBatch forecast =
+                OpenWeatherJsonUtils.getForecastBatchFromStream(mContext, toStream(forecastJson));
+
+        assertNotNull("Streaming parser returned null for a valid forecast", forecast);
+
+        ForecastBatch expected = ForecastBatch.fromContentValues(domValues);
+        assertNotNull("DOM parser returned values that don't fit in a ForecastBatch", expected);
+        assertEquals("Parsers returned a different number of days",
+                expected.size(),
+                forecast.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            String error = "Parsers disagree on day " + i;
+            assertEquals(error, expected.getDate(i), forecast.getDate(i));
+            assertEquals(error, expected.getWeatherId(i), forecast.getWeatherId(i));
+            assertEquals(error, expected.getMinTemp(i), forecast.getMinTemp(i));
+            assertEquals(error, expected.getMaxTemp(i), forecast.getMaxTemp(i));
+            assertEquals(error, expected.getHumidity(i), forecast.getHumidity(i));
+            assertEquals(error, expected.getPressure(i), forecast.getPressure(i));
+            assertEquals(error, expected.getWindSpeed(i), forecast.getWindSpeed(i));
+            assertEquals(error, expected.getDegrees(i), forecast.getDegrees(i));
+        }
+    }
+
+    @Test
+    public void testStreamingParserReturnsNullForErrorCode() throws Exception {
+        String notFoundJson = "{\"cod\":\"404\",\"message\":\"city not found\"}";
+
+        assertNull("DOM parser should return null for an error code",
+                OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, notFoundJson));
+        assertNull("Streaming parser should return null for an error code",
+                OpenWeatherJsonUtils.getWeatherContentValuesFromStream(
+                        mContext, toStream(notFoundJson)));
+    }
+
+    @Test
+    public void benchmarkParsers() throws Exception {
+        benchmarkParsers(14);
+        benchmarkParsers(365);
+    }
+
+    private void benchmarkParsers(int numDays) throws Exception {
+        String forecastJson = createForecastJson(numDays);
+        byte[] forecastBytes = forecastJson.getBytes(UTF_8);
+
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            parseWithDom(forecastBytes);
+            parseWithStream(forecastBytes);
+        }
+
+        long[] domResult = measure(forecastBytes, false);
+        long[] streamingResult = measure(forecastBytes, true);
+
+        Log.i(TAG, String.format("%d days (%d bytes): "
+                        + "DOM %d us, %d objects, %d bytes per parse; "
+                        + "streaming %d us, %d objects, %d bytes per parse",
+                numDays, forecastBytes.length,
+                domResult[0], domResult[1], domResult[2],
+                streamingResult[0], streamingResult[1], streamingResult[2]));
+    }
+
+    /**
+     * Parses the forecast {@link #BENCHMARK_ITERATIONS} times with one of the parsers.
+     *
+     * @return the average time in microseconds, objects allocated and bytes allocated per parse
+     */
+    @SuppressWarnings("deprecation")
+    private long[] measure(byte[] forecastBytes, boolean streaming) throws Exception {
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            if (streaming) {
+                parseWithStream(forecastBytes);
+            } else {
+                parseWithDom(forecastBytes);
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        Debug.stopAllocCounting();
+
+        return new long[]{
+                elapsedNanos / 1000 / BENCHMARK_ITERATIONS,
+                Debug.getThreadAllocCount() / BENCHMARK_ITERATIONS,
+                Debug.getThreadAllocSize() / BENCHMARK_ITERATIONS};
+    }
+
+    /* The DOM path has to turn the response into a String before it can build its tree */
+    private void parseWithDom(byte[] forecastBytes) throws Exception {
+        String forecastJson = new String(forecastBytes, UTF_8);
+        OpenWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, forecastJson);
+    }
+
+    private void parseWithStream(byte[] forecastBytes) throws Exception {
+        OpenWeatherJsonUtils.getWeatherContentValuesFromStream(mContext,
+                new ByteArrayInputStream(forecastBytes));
+    }
+
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(UTF_8));
+    }
+
+    /**
+     * Builds a forecast in the same format that the weather server sends us, including the
+     * fields that Sunshine doesn't use so that both parsers have to skip over them.
+     *
+     * @param numDays Number of days of weather in the "list" array
+     * @return Forecast JSON
+     */
+    static String createForecastJson(int numDays) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.0838,\"lat\":37.3861},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"dt\":").append(1475280000L + i * 86400L)
+                    .append(",\"temp\":{\"day\":").append(20 + i % 7)
+                    .append(",\"min\":").append(10.25 + i % 5)
+                    .append(",\"max\":").append(22.75 + i % 9)
+                    .append(",\"night\":12.5,\"eve\":18.5,\"morn\":11.5},")
+                    .append("\"pressure\":").append(1013.12 + i % 11)
+                    .append(",\"humidity\":").append(50 + i % 40)
+                    .append(",\"weather\":[{\"id\":").append(800 + i % 5)
+                    .append(",\"main\":\"Clear\",\"description\":\"sky is clear\",")
+                    .append("\"icon\":\"01d\"}],")
+                    .append("\"speed\":").append(1.5 + i % 6)
+                    .append(",\"deg\":").append(i * 13 % 360)
+                    .append(",\"clouds\":0}");
+        }
+
+        json.append("]}");
+        return json.toString();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP server on the loopback interface, for tests that download from it. It answers
+ * the n-th request with the n-th status of its script, and every request after the end of the
+ * script with the last one. If it has an ETag, it sends it with every 200, and answers a request
+ * that sends it back in If-None-Match with 304 Not Modified, whatever the script says.
+ */
+public final class StubHttpServer implements Runnable {
+
+    private final ServerSocket mServerSocket;
+    private final Thread mThread;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConditionalRequestCount = new AtomicInteger();
+
+    private final String mBody;
+    private volatile int[] mScript = {200};
+    private volatile String mEtag;
+
+    /**
+     * Starts a server.
+     *
+     * @param body The body of every 200 response
+     * @throws IOException If no port could be bound
+     */
+    public StubHttpServer(String body) throws IOException {
+        mBody = body;
+        mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        mThread = new Thread(this, "StubHttpServer");
+        mThread.start();
+    }
+
+    public void setScript(int... statusCodes) {
+        mScript = statusCodes;
+    }
+
+    /**
+     * @param etag The ETag of the body, including its quotes, or null to send none
+     */
+    public void setEtag(String etag) {
+        mEtag = etag;
+    }
+
+    public URL getUrl() throws IOException {
+        return new URL("http", "127.0.0.1", mServerSocket.getLocalPort(), "/forecast");
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return The number of requests that had an If-None-Match header
+     */
+    public int getConditionalRequestCount() {
+        return mConditionalRequestCount.get();
+    }
+
+    @Override
+    public void run() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                Socket socket = mServerSocket.accept();
+                try {
+                    answer(socket);
+                } finally {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                /* The server was closed */
+            }
+        }
+    }
+
+    private void answer(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        String ifNoneMatch = null;
+        String line;
+        do {
+            line = reader.readLine();
+            if (line != null && line.regionMatches(true, 0, "If-None-Match:", 0, 14)) {
+                ifNoneMatch = line.substring(14).trim();
+            }
+        } while (line != null && !line.isEmpty());
+
+        int[] script = mScript;
+        int request = mRequestCount.getAndIncrement();
+        int statusCode = script[Math.min(request, script.length - 1)];
+
+        String etag = mEtag;
+        if (ifNoneMatch != null) {
+            mConditionalRequestCount.incrementAndGet();
+            if (ifNoneMatch.equals(etag)) {
+                statusCode = 304;
+            }
+        }
+
+        byte[] body = (statusCode == 200 ? mBody : "").getBytes("UTF-8");
+        String head = "HTTP/1.1 " + statusCode + " Stub\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + (statusCode == 200 && etag != null ? "ETag: " + etag + "\r\n" : "")
+                + "Connection: close\r\n"
+                + "\r\n";
+
+        OutputStream out = socket.getOutputStream();
+        out.write(head.getBytes("UTF-8"));
+        out.write(body);
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        mServerSocket.close();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -193,6 +193,10 @@ public class DetailActivity extends AppCompatActivity implements
 
             case ID_DETAIL_LOADER:
 
+                /*
+                 * WeatherProvider notifies per day, so this loader only reloads when the weather
+                 * of the day at mUri changes, not whenever any day of the forecast does.
+                 */
                 return new CursorLoader(this,
                         mUri,
                         WEATHER_DETAIL_PROJECTION,
@@ -74,6 +74,12 @@ public class MainActivity extends AppCompatActivity implements
      */
     private static final int ID_FORECAST_LOADER = 44;
 
+    /*
+     * A sync notifies once for every day it changed. The forecast loader waits at least this
+     * long after a load before it loads again, so the whole burst results in a single reload.
+     */
+    private static final long FORECAST_RELOAD_THROTTLE_MILLIS = 250;
+
     private ForecastAdapter mForecastAdapter;
     private RecyclerView mRecyclerView;
     private int mPosition = RecyclerView.NO_POSITION;
@@ -206,16 +212,21 @@ public class MainActivity extends AppCompatActivity implements
                 /*
                  * A SELECTION in SQL declares which rows you'd like to return. In our case, we
                  * want all weather data from today onwards that is stored in our weather table.
-                 * We created a handy method to do that in our WeatherEntry class.
+                 * We created a handy method to do that in our WeatherEntry class. Today's date
+                 * is passed as a selection argument, so the SQL is the same on every restart.
                  */
                 String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
+                String[] selectionArgs =
+                        WeatherContract.WeatherEntry.getSelectionArgsForTodayOnwards();
 
-                return new CursorLoader(this,
+                CursorLoader forecastLoader = new CursorLoader(this,
                         forecastQueryUri,
                         MAIN_FORECAST_PROJECTION,
                         selection,
-                        null,
+                        selectionArgs,
                         sortOrder);
+                forecastLoader.setUpdateThrottle(FORECAST_RELOAD_THROTTLE_MILLIS);
+                return forecastLoader;
 
             default:
                 throw new RuntimeException("Loader Not Implemented: " + loaderId);
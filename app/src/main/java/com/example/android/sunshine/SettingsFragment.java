@@ -27,12 +27,13 @@ import android.support.v7.preference.PreferenceScreen;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
+import com.example.android.sunshine.sync.SunshineSyncWearableIntentService;
 
 /**
  * The SettingsFragment serves as the display for all of the user's settings. In Sunshine, the
  * user will be able to change their preference for units of measurement from metric to imperial,
- * set their preferred weather location, and indicate whether or not they'd like to see
- * notifications.
+ * set their preferred weather location and the other locations to sync, and indicate whether or
+ * not they'd like to see notifications.
  *
  * Please note: If you are using our dummy weather services, the location returned will always be
  * Mountain View, California.
@@ -98,10 +99,19 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
             SunshinePreferences.resetLocationCoordinates(activity);
+            // The weather we have stored is for the old location, so don't let the sync skip the
+            // download if the server says the new location's forecast hasn't changed.
+            SunshinePreferences.clearResponseValidators(activity);
+            SunshineSyncUtils.startImmediateSync(activity);
+        } else if (key.equals(getString(R.string.pref_additional_locations_key))) {
+            // the sync downloads the locations that were added, and deletes the weather of the
+            // ones that were removed
             SunshineSyncUtils.startImmediateSync(activity);
         } else if (key.equals(getString(R.string.pref_units_key))) {
             // units have changed. update lists of weather entries accordingly
             activity.getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // the wearable shows temperatures in the same units, so refresh it right away
+            SunshineSyncWearableIntentService.startPush(activity, true);
         }
         Preference preference = findPreference(key);
         if (null != preference) {
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * A forecast of any number of days, stored column by column in primitive arrays. There is one
+ * array for each column of {@link WeatherEntry} (other than _ID), and row i of the forecast is
+ * made up of element i of every array.
+ * <p>
+ * An array of ContentValues needs a HashMap and eight boxed values for every day. A ForecastBatch
+ * needs neither, so the parser can fill it and {@link WeatherProvider} can bind it to its insert
+ * statement without allocating anything per day. Pass it to the provider with
+ * {@link WeatherContract#METHOD_WRITE_FORECAST}. {@link #toContentValues()} and
+ * {@link #fromContentValues(ContentValues[])} convert from and to the ContentValues that
+ * bulkInsert takes.
+ */
+public final class ForecastBatch implements Parcelable {
+
+    /* Most forecasts we download are two weeks long */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /*
+     * The columns a row of ContentValues must hold, and nothing else, to be converted by
+     * fromContentValues.
+     */
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private int mSize;
+
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    /* The coordinates of the city the forecast is for, if the server sent them */
+    private boolean mHasCityCoordinates;
+    private double mCityLatitude;
+    private double mCityLongitude;
+
+    /**
+     * Creates an empty batch with room for a two week forecast. The batch grows as needed.
+     */
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch with room for the given number of days. The batch grows as needed.
+     *
+     * @param capacity Number of days the batch can hold before it has to grow
+     */
+    public ForecastBatch(int capacity) {
+        allocate(Math.max(capacity, 1));
+    }
+
+    private void allocate(int capacity) {
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Adds a day to the end of this batch.
+     *
+     * @param date      Normalized UTC date of the day, see {@link WeatherEntry#COLUMN_DATE}
+     * @param weatherId Weather condition ID as returned by the API
+     * @param minTemp   Low temperature in °C
+     * @param maxTemp   High temperature in °C
+     * @param humidity  Humidity in percent
+     * @param pressure  Pressure in hPa
+     * @param windSpeed Wind speed
+     * @param degrees   Wind direction in meteorological degrees
+     */
+    public void add(long date, int weatherId, double minTemp, double maxTemp, double humidity,
+                    double pressure, double windSpeed, double degrees) {
+        if (mSize == mDates.length) {
+            grow();
+        }
+
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    private void grow() {
+        long[] dates = mDates;
+        int[] weatherIds = mWeatherIds;
+        double[] minTemps = mMinTemps;
+        double[] maxTemps = mMaxTemps;
+        double[] humidities = mHumidities;
+        double[] pressures = mPressures;
+        double[] windSpeeds = mWindSpeeds;
+        double[] degrees = mDegrees;
+
+        allocate(mSize * 2);
+
+        System.arraycopy(dates, 0, mDates, 0, mSize);
+        System.arraycopy(weatherIds, 0, mWeatherIds, 0, mSize);
+        System.arraycopy(minTemps, 0, mMinTemps, 0, mSize);
+        System.arraycopy(maxTemps, 0, mMaxTemps, 0, mSize);
+        System.arraycopy(humidities, 0, mHumidities, 0, mSize);
+        System.arraycopy(pressures, 0, mPressures, 0, mSize);
+        System.arraycopy(windSpeeds, 0, mWindSpeeds, 0, mSize);
+        System.arraycopy(degrees, 0, mDegrees, 0, mSize);
+    }
+
+    /**
+     * @return The number of days in this batch
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public long getDate(int i) {
+        return mDates[i];
+    }
+
+    public int getWeatherId(int i) {
+        return mWeatherIds[i];
+    }
+
+    public double getMinTemp(int i) {
+        return mMinTemps[i];
+    }
+
+    public double getMaxTemp(int i) {
+        return mMaxTemps[i];
+    }
+
+    public double getHumidity(int i) {
+        return mHumidities[i];
+    }
+
+    public double getPressure(int i) {
+        return mPressures[i];
+    }
+
+    public double getWindSpeed(int i) {
+        return mWindSpeeds[i];
+    }
+
+    public double getDegrees(int i) {
+        return mDegrees[i];
+    }
+
+    /**
+     * Sets the coordinates of the city this forecast is for. {@link WeatherProvider} stores them
+     * with the location the forecast is written for.
+     *
+     * @param latitude  The latitude of the city
+     * @param longitude The longitude of the city
+     */
+    public void setCityCoordinates(double latitude, double longitude) {
+        mHasCityCoordinates = true;
+        mCityLatitude = latitude;
+        mCityLongitude = longitude;
+    }
+
+    /**
+     * @return true if the coordinates of the city this forecast is for are known
+     */
+    public boolean hasCityCoordinates() {
+        return mHasCityCoordinates;
+    }
+
+    public double getCityLatitude() {
+        return mCityLatitude;
+    }
+
+    public double getCityLongitude() {
+        return mCityLongitude;
+    }
+
+    /**
+     * Converts this batch to one set of ContentValues per day, for callers that work with
+     * ContentValues, such as {@link android.content.ContentResolver#bulkInsert}.
+     *
+     * @return An array of ContentValues holding the same days as this batch
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] weatherContentValues = new ContentValues[mSize];
+
+        for (int i = 0; i < mSize; i++) {
+            ContentValues weatherValues = new ContentValues(COLUMNS.length);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, mDates[i]);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, mHumidities[i]);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, mPressures[i]);
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[i]);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, mDegrees[i]);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[i]);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[i]);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[i]);
+            weatherContentValues[i] = weatherValues;
+        }
+
+        return weatherContentValues;
+    }
+
+    /**
+     * Converts rows of ContentValues, as passed to bulkInsert, to a batch. This only works if
+     * every row holds exactly the columns of the weather table other than _ID, each with a
+     * numeric value.
+     *
+     * @param values The rows to convert
+     * @return A batch holding the same days, or null if any of the rows can't be converted
+     */
+    public static ForecastBatch fromContentValues(ContentValues[] values) {
+        ForecastBatch batch = new ForecastBatch(values.length);
+
+        for (ContentValues value : values) {
+            if (value.size() != COLUMNS.length) {
+                return null;
+            }
+
+            Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+            Integer weatherId = value.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            Double minTemp = value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+            Double maxTemp = value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+            Double humidity = value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+            Double pressure = value.getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+            Double windSpeed = value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+            Double degrees = value.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+
+            if (date == null || weatherId == null || minTemp == null || maxTemp == null
+                    || humidity == null || pressure == null || windSpeed == null
+                    || degrees == null) {
+                return null;
+            }
+
+            batch.add(date, weatherId, minTemp, maxTemp, humidity, pressure, windSpeed, degrees);
+        }
+
+        return batch;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /*
+     * When the provider is called from within our own process, as the sync does, the batch isn't
+     * parceled at all. This is only used when it crosses process boundaries.
+     */
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mSize);
+        for (int i = 0; i < mSize; i++) {
+            dest.writeLong(mDates[i]);
+            dest.writeInt(mWeatherIds[i]);
+            dest.writeDouble(mMinTemps[i]);
+            dest.writeDouble(mMaxTemps[i]);
+            dest.writeDouble(mHumidities[i]);
+            dest.writeDouble(mPressures[i]);
+            dest.writeDouble(mWindSpeeds[i]);
+            dest.writeDouble(mDegrees[i]);
+        }
+        dest.writeInt(mHasCityCoordinates ? 1 : 0);
+        dest.writeDouble(mCityLatitude);
+        dest.writeDouble(mCityLongitude);
+    }
+
+    public static final Creator<ForecastBatch> CREATOR = new Creator<ForecastBatch>() {
+        @Override
+        public ForecastBatch createFromParcel(Parcel in) {
+            int size = in.readInt();
+            ForecastBatch batch = new ForecastBatch(size);
+            for (int i = 0; i < size; i++) {
+                batch.add(in.readLong(), in.readInt(), in.readDouble(), in.readDouble(),
+                        in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+            }
+            boolean hasCityCoordinates = in.readInt() != 0;
+            double cityLatitude = in.readDouble();
+            double cityLongitude = in.readDouble();
+            if (hasCityCoordinates) {
+                batch.setCityCoordinates(cityLatitude, cityLongitude);
+            }
+            return batch;
+        }
+
+        @Override
+        public ForecastBatch[] newArray(int size) {
+            return new ForecastBatch[size];
+        }
+    };
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the weather of recently queried locations in memory, so that {@link WeatherProvider}
+ * can answer the same queries again without going back to SQLite. There is one
+ * {@link ForecastSnapshot} per location setting.
+ * <p>
+ * The cache is bounded by the number of bytes its snapshots hold. When it grows beyond that, the
+ * snapshots of the locations that were queried the longest time ago are evicted first. A
+ * snapshot that is larger than the whole cache is not cached at all.
+ */
+public final class ForecastCache {
+
+    private final long mMaxBytes;
+
+    /* In access order, so the eldest entry is the least recently used one */
+    private final LinkedHashMap<String, ForecastSnapshot> mSnapshots =
+            new LinkedHashMap<>(4, 0.75f, true);
+
+    /*
+     * Incremented whenever weather is written. A snapshot that was read while the generation
+     * changed may already be out of date, so it isn't cached.
+     */
+    private long mGeneration;
+
+    private long mBytesHeld;
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * @param maxBytes The most bytes the snapshots in the cache may hold together
+     */
+    ForecastCache(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @param locationSetting The location to look up
+     * @return The snapshot of the location, or null if it isn't cached
+     */
+    synchronized ForecastSnapshot get(String locationSetting) {
+        ForecastSnapshot snapshot = mSnapshots.get(locationSetting);
+        if (snapshot != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the current generation of the cache. Read it before reading a snapshot from the
+     * database, and pass it to {@link #put}.
+     *
+     * @return The current generation
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Caches the snapshot of a location, unless weather was written since the snapshot was read.
+     *
+     * @param locationSetting The location of the snapshot
+     * @param snapshot        The snapshot
+     * @param generation      The generation of the cache before the snapshot was read
+     */
+    synchronized void put(String locationSetting, ForecastSnapshot snapshot, long generation) {
+        if (generation != mGeneration || snapshot.getByteCount() > mMaxBytes) {
+            return;
+        }
+
+        ForecastSnapshot previous = mSnapshots.put(locationSetting, snapshot);
+        if (previous != null) {
+            mBytesHeld -= previous.getByteCount();
+        }
+        mBytesHeld += snapshot.getByteCount();
+
+        Iterator<Map.Entry<String, ForecastSnapshot>> eldest = mSnapshots.entrySet().iterator();
+        while (mBytesHeld > mMaxBytes && eldest.hasNext()) {
+            ForecastSnapshot evicted = eldest.next().getValue();
+            eldest.remove();
+            mBytesHeld -= evicted.getByteCount();
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Drops the snapshot of a location whose weather was written.
+     *
+     * @param locationSetting The location whose weather was written
+     */
+    synchronized void invalidate(String locationSetting) {
+        mGeneration++;
+        ForecastSnapshot snapshot = mSnapshots.remove(locationSetting);
+        if (snapshot != null) {
+            mBytesHeld -= snapshot.getByteCount();
+        }
+    }
+
+    /**
+     * Drops every snapshot, for writes that may affect any location.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mSnapshots.clear();
+        mBytesHeld = 0;
+    }
+
+    /**
+     * @return The number of queries that were answered from the cache
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return The number of queries the cache could have answered, but had to be read first
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return Roughly how many bytes the cached snapshots take up
+     */
+    public synchronized long getBytesHeld() {
+        return mBytesHeld;
+    }
+
+    /**
+     * @return The number of snapshots that were evicted to keep the cache within its bounds
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+}
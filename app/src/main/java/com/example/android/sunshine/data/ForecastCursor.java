@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * A read-only cursor over a range of the rows of a {@link ForecastSnapshot}. Unlike a cursor from
+ * SQLite, it doesn't copy the rows into a CursorWindow: every getter reads straight from the
+ * primitive arrays of the snapshot. Moving to a row only sets the position, and reading a number
+ * doesn't allocate anything.
+ * <p>
+ * The numbers behave as they would from SQLite: the INTEGER columns can be read with any getter,
+ * and getString of a REAL column returns what SQLite would.
+ */
+final class ForecastCursor extends AbstractCursor {
+
+    private final ForecastSnapshot mSnapshot;
+    private final String[] mColumnNames;
+
+    /* For every column of the cursor, the index of the column in ForecastSnapshot.COLUMNS */
+    private final int[] mColumnIndexes;
+
+    /* The row of the snapshot the first row of this cursor is */
+    private final int mFirstRow;
+    private final int mCount;
+
+    /**
+     * @param snapshot      The snapshot to read the rows from
+     * @param columnNames   The names of the columns of the cursor
+     * @param columnIndexes For every column, its index in {@link ForecastSnapshot#COLUMNS}
+     * @param firstRow      The row of the snapshot the cursor starts at
+     * @param count         The number of rows of the cursor
+     */
+    ForecastCursor(ForecastSnapshot snapshot, String[] columnNames, int[] columnIndexes,
+                   int firstRow, int count) {
+        mSnapshot = snapshot;
+        mColumnNames = columnNames;
+        mColumnIndexes = columnIndexes;
+        mFirstRow = firstRow;
+        mCount = count;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        int columnIndex = mColumnIndexes[column];
+        if (ForecastSnapshot.isRealColumn(columnIndex)) {
+            return ForecastSnapshot.formatReal(getDouble(column));
+        }
+        return Long.toString(getLong(column));
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        checkPosition();
+        return mSnapshot.getLong(mFirstRow + getPosition(), mColumnIndexes[column]);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        checkPosition();
+        return mSnapshot.getDouble(mFirstRow + getPosition(), mColumnIndexes[column]);
+    }
+
+    @Override
+    public int getType(int column) {
+        return ForecastSnapshot.isRealColumn(mColumnIndexes[column])
+                ? Cursor.FIELD_TYPE_FLOAT
+                : Cursor.FIELD_TYPE_INTEGER;
+    }
+
+    /* Every column of the weather table is NOT NULL */
+    @Override
+    public boolean isNull(int column) {
+        checkPosition();
+        return false;
+    }
+}
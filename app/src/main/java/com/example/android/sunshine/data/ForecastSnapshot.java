@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Every row of the weather table for one location, sorted by date, as {@link ForecastCache}
+ * holds it. A snapshot is never changed once it has been created; when the weather of its
+ * location is written, the snapshot is dropped from the cache and a new one is read.
+ */
+final class ForecastSnapshot {
+
+    /*
+     * Every column of the weather table, in the order of the table, which is the order a query
+     * without a projection returns them in.
+     */
+    static final String[] COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    /* The columns from this index of COLUMNS onwards are REAL columns, the others INTEGERs */
+    private static final int FIRST_REAL_COLUMN = 4;
+
+    /* The number of significant digits SQLite turns a REAL into a string with */
+    private static final MathContext REAL_STRING_PRECISION =
+            new MathContext(6, RoundingMode.HALF_EVEN);
+
+    /*
+     * The _ID and date are longs, the weather ID an int, the rest doubles. The location key is
+     * held once for the whole snapshot, not once per row.
+     */
+    private static final int BYTES_PER_ROW = 2 * 8 + 4 + 6 * 8;
+
+    private final long mLocationId;
+    private final long[] mIds;
+    private final ForecastBatch mForecast;
+
+    /**
+     * @param locationId The _ID of the location, or -1 if the location isn't stored
+     * @param ids        The _ID of every row, in the same order as the days of the forecast
+     * @param forecast   Every row of the location, sorted by date. It must not be changed
+     *                   afterwards.
+     */
+    ForecastSnapshot(long locationId, long[] ids, ForecastBatch forecast) {
+        mLocationId = locationId;
+        mIds = ids;
+        mForecast = forecast;
+    }
+
+    int size() {
+        return mForecast.size();
+    }
+
+    /**
+     * @return Roughly how many bytes the rows of this snapshot and its location key take up
+     */
+    long getByteCount() {
+        return 8 + (long) BYTES_PER_ROW * size();
+    }
+
+    /**
+     * @param projection The columns a query asks for, or null for every column
+     * @return true if every column of the projection is a column of the weather table
+     */
+    static boolean hasColumns(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (indexOfColumn(column) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOfColumn(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first row whose date is on or after the given date.
+     *
+     * @param date Normalized date in milliseconds
+     * @return The index of the row, or size() if every row is before the date
+     */
+    private int lowerBound(long date) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mForecast.getDate(mid) < date) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Creates a cursor over the rows of this snapshot whose date lies within the given range,
+     * sorted by date.
+     *
+     * @param projection The columns to return, or null for every column
+     * @param fromDate   The first date to return
+     * @param toDate     The last date to return
+     * @return A cursor holding the rows
+     */
+    Cursor query(String[] projection, long fromDate, long toDate) {
+        String[] columns = projection != null ? projection : COLUMNS;
+        int[] columnIndexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columnIndexes[i] = indexOfColumn(columns[i]);
+        }
+
+        int first = lowerBound(fromDate);
+        int end = toDate == Long.MAX_VALUE ? size() : lowerBound(toDate + 1);
+
+        return new ForecastCursor(this, columns, columnIndexes, first, Math.max(0, end - first));
+    }
+
+    /**
+     * @param columnIndex The index of a column in {@link #COLUMNS}
+     * @return true if the column is a REAL column, false if it is an INTEGER column
+     */
+    static boolean isRealColumn(int columnIndex) {
+        return columnIndex >= FIRST_REAL_COLUMN;
+    }
+
+    /**
+     * Turns the value of a REAL column into a string the way {@link Cursor#getString} does for
+     * a cursor from SQLite, which formats it as C's printf does for "%g": rounded to six
+     * significant digits, without trailing zeros, and in scientific notation if it is very large
+     * or very small.
+     *
+     * @param value The value of the column
+     * @return The value as SQLite would return it
+     */
+    static String formatReal(double value) {
+        if (Double.isNaN(value)) {
+            return "nan";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "inf" : "-inf";
+        } else if (value == 0) {
+            return Double.doubleToRawLongBits(value) < 0 ? "-0" : "0";
+        }
+
+        BigDecimal rounded = new BigDecimal(value).round(REAL_STRING_PRECISION);
+        int exponent = rounded.precision() - rounded.scale() - 1;
+
+        if (exponent < -4 || exponent >= REAL_STRING_PRECISION.getPrecision()) {
+            String mantissa = rounded.movePointLeft(exponent).stripTrailingZeros()
+                    .toPlainString();
+            String exponentDigits = Integer.toString(Math.abs(exponent));
+            return mantissa + (exponent < 0 ? "e-" : "e+")
+                    + (exponentDigits.length() < 2 ? "0" : "") + exponentDigits;
+        }
+        return rounded.stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * @param row         The index of the row
+     * @param columnIndex The index of an INTEGER column in {@link #COLUMNS}
+     * @return The value of the column
+     */
+    long getLong(int row, int columnIndex) {
+        switch (columnIndex) {
+            case 0:
+                return mIds[row];
+            case 1:
+                return mForecast.getDate(row);
+            case 2:
+                return mLocationId;
+            case 3:
+                return mForecast.getWeatherId(row);
+            default:
+                if (isRealColumn(columnIndex)) {
+                    return (long) getDouble(row, columnIndex);
+                }
+                throw new IllegalArgumentException("Unknown column index: " + columnIndex);
+        }
+    }
+
+    /**
+     * @param row         The index of the row
+     * @param columnIndex The index of a column in {@link #COLUMNS}
+     * @return The value of the column
+     */
+    double getDouble(int row, int columnIndex) {
+        if (!isRealColumn(columnIndex)) {
+            return getLong(row, columnIndex);
+        }
+        switch (columnIndex) {
+            case 4:
+                return mForecast.getMinTemp(row);
+            case 5:
+                return mForecast.getMaxTemp(row);
+            case 6:
+                return mForecast.getHumidity(row);
+            case 7:
+                return mForecast.getPressure(row);
+            case 8:
+                return mForecast.getWindSpeed(row);
+            case 9:
+                return mForecast.getDegrees(row);
+            default:
+                throw new IllegalArgumentException("Unknown column index: " + columnIndex);
+        }
+    }
+}
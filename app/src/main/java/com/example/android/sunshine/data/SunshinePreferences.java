@@ -18,9 +18,15 @@ package com.example.android.sunshine.data;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 
 import com.example.android.sunshine.R;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.regex.Pattern;
+
 public final class SunshinePreferences {
 
     /*
@@ -31,6 +37,43 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /*
+     * The locations the user tracks besides the preferred location, as location settings
+     * separated by LOCATION_SEPARATOR. Location settings such as "94043,USA" may contain commas,
+     * but never a "|". The user edits them in the settings, under pref_additional_locations_key.
+     */
+    public static final String PREF_ADDITIONAL_LOCATIONS = "additional_locations";
+    private static final String LOCATION_SEPARATOR = "|";
+
+    /*
+     * The ETag and Last-Modified validators of the last forecast we downloaded are kept in their
+     * own file, keyed by the URL they were fetched from. They are not user preferences, and this
+     * way they can be cleared all at once without touching anything else. Next to them is the
+     * day the stored forecast was dated from, as the parsers date the days of a forecast from
+     * the day they parse it on.
+     */
+    private static final String HTTP_VALIDATORS_FILE = "http_validators";
+    private static final String SUFFIX_ETAG = "#etag";
+    private static final String SUFFIX_LAST_MODIFIED = "#last_modified";
+    private static final String SUFFIX_LENGTH = "#length";
+    private static final String SUFFIX_DATED_FROM = "#dated_from";
+
+    /*
+     * The state of the adaptive sync schedule is kept in its own file as well, as it isn't a
+     * user preference either. The interval is the one the scheduler wants; the scheduled
+     * interval is the one the periodic job was last scheduled with.
+     */
+    private static final String SYNC_SCHEDULE_FILE = "sync_schedule";
+    private static final String KEY_SYNC_INTERVAL = "interval_seconds";
+    private static final String KEY_SCHEDULED_SYNC_INTERVAL = "scheduled_interval_seconds";
+
+    /*
+     * The hash of the last payload the wearable received, so that a push of the same payload
+     * can be skipped, even after the process was restarted.
+     */
+    private static final String WEARABLE_PUSH_FILE = "wearable_push";
+    private static final String KEY_WEARABLE_PAYLOAD_HASH = "payload_hash";
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
@@ -82,6 +125,46 @@ public final class SunshinePreferences {
         return sp.getString(keyForLocation, defaultLocation);
     }
 
+    /**
+     * Returns the locations the user tracks besides the preferred location.
+     *
+     * @param context Context used to access SharedPreferences
+     * @return The location settings of the additional locations, which may be empty. As the
+     * user types them in, blanks around each location and empty ones are left out.
+     */
+    public static String[] getAdditionalWeatherLocations(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String additionalLocations = sp.getString(PREF_ADDITIONAL_LOCATIONS, "");
+
+        if (additionalLocations.length() == 0) {
+            return new String[0];
+        }
+        String[] locations =
+                TextUtils.split(additionalLocations, Pattern.quote(LOCATION_SEPARATOR));
+        ArrayList<String> trimmedLocations = new ArrayList<>(locations.length);
+        for (String location : locations) {
+            String trimmedLocation = location.trim();
+            if (trimmedLocation.length() > 0) {
+                trimmedLocations.add(trimmedLocation);
+            }
+        }
+        return trimmedLocations.toArray(new String[trimmedLocations.size()]);
+    }
+
+    /**
+     * Returns every location the user tracks: the preferred location first, followed by the
+     * additional locations. Each location appears only once.
+     *
+     * @param context Context used to access SharedPreferences
+     * @return The location settings of every tracked location
+     */
+    public static String[] getWeatherLocations(Context context) {
+        LinkedHashSet<String> locations = new LinkedHashSet<>();
+        locations.add(getPreferredWeatherLocation(context));
+        Collections.addAll(locations, getAdditionalWeatherLocations(context));
+        return locations.toArray(new String[locations.size()]);
+    }
+
     /**
      * Returns true if the user has selected metric temperature display.
      *
@@ -242,4 +325,176 @@ public final class SunshinePreferences {
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
     }
+
+    /**
+     * Returns the ETag of the last response we processed from the given URL.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The URL the response was fetched from
+     * @return The ETag, or null if we don't have one for this URL
+     */
+    public static String getResponseEtag(Context context, String url) {
+        SharedPreferences sp = getHttpValidators(context);
+        return sp.getString(url + SUFFIX_ETAG, null);
+    }
+
+    /**
+     * Returns the Last-Modified date of the last response we processed from the given URL.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The URL the response was fetched from
+     * @return The Last-Modified date as sent by the server, or null if we don't have one
+     */
+    public static String getResponseLastModified(Context context, String url) {
+        SharedPreferences sp = getHttpValidators(context);
+        return sp.getString(url + SUFFIX_LAST_MODIFIED, null);
+    }
+
+    /**
+     * Returns the size of the last response we processed from the given URL. This is used to
+     * estimate how many bytes a 304 Not Modified response saved us.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The URL the response was fetched from
+     * @return The size of the response body in bytes, or 0 if unknown
+     */
+    public static int getResponseLength(Context context, String url) {
+        SharedPreferences sp = getHttpValidators(context);
+        return sp.getInt(url + SUFFIX_LENGTH, 0);
+    }
+
+    /**
+     * Returns the day the forecast of the last response we processed from the given URL was
+     * dated from. Its validators only describe the forecast we stored on that day.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The URL the response was fetched from
+     * @return The normalized UTC date of that day, or -1 if unknown
+     */
+    public static long getResponseDatedFrom(Context context, String url) {
+        SharedPreferences sp = getHttpValidators(context);
+        return sp.getLong(url + SUFFIX_DATED_FROM, -1);
+    }
+
+    /**
+     * Saves the validators of the last response we processed from the given URL. Validators the
+     * server didn't send are removed, so a stale one is never sent back.
+     *
+     * @param context      Used to access SharedPreferences
+     * @param url          The URL the response was fetched from
+     * @param etag         The ETag of the response, may be null
+     * @param lastModified The Last-Modified date of the response, may be null
+     * @param length       The size of the response body in bytes
+     * @param datedFrom    The normalized UTC date the forecast of the response was dated from
+     */
+    public static void setResponseValidators(Context context, String url, String etag,
+            String lastModified, int length, long datedFrom) {
+        SharedPreferences sp = getHttpValidators(context);
+        SharedPreferences.Editor editor = sp.edit();
+
+        if (etag != null) {
+            editor.putString(url + SUFFIX_ETAG, etag);
+        } else {
+            editor.remove(url + SUFFIX_ETAG);
+        }
+
+        if (lastModified != null) {
+            editor.putString(url + SUFFIX_LAST_MODIFIED, lastModified);
+        } else {
+            editor.remove(url + SUFFIX_LAST_MODIFIED);
+        }
+
+        editor.putInt(url + SUFFIX_LENGTH, length);
+        editor.putLong(url + SUFFIX_DATED_FROM, datedFrom);
+        editor.apply();
+    }
+
+    /**
+     * Forgets the validators of every response, so that the next request for each URL downloads
+     * the full forecast. This must be called whenever the weather we have stored no longer
+     * matches the last response, for example when the database is empty or the location changed.
+     *
+     * @param context Used to access SharedPreferences
+     */
+    public static void clearResponseValidators(Context context) {
+        SharedPreferences sp = getHttpValidators(context);
+        sp.edit().clear().apply();
+    }
+
+    /**
+     * Returns the interval the adaptive sync scheduler wants the periodic sync to run at.
+     *
+     * @param context        Used to access SharedPreferences
+     * @param defaultSeconds The interval to return if the scheduler hasn't chosen one yet
+     * @return The sync interval in seconds
+     */
+    public static int getSyncIntervalSeconds(Context context, int defaultSeconds) {
+        return getSyncSchedule(context).getInt(KEY_SYNC_INTERVAL, defaultSeconds);
+    }
+
+    /**
+     * Saves the interval the adaptive sync scheduler wants the periodic sync to run at.
+     *
+     * @param context         Used to access SharedPreferences
+     * @param intervalSeconds The sync interval in seconds
+     */
+    public static void setSyncIntervalSeconds(Context context, int intervalSeconds) {
+        getSyncSchedule(context).edit().putInt(KEY_SYNC_INTERVAL, intervalSeconds).apply();
+    }
+
+    /**
+     * Returns the interval the periodic sync job was last scheduled with.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The scheduled interval in seconds, or 0 if the job was never scheduled
+     */
+    public static int getScheduledSyncIntervalSeconds(Context context) {
+        return getSyncSchedule(context).getInt(KEY_SCHEDULED_SYNC_INTERVAL, 0);
+    }
+
+    /**
+     * Saves the interval the periodic sync job was scheduled with.
+     *
+     * @param context         Used to access SharedPreferences
+     * @param intervalSeconds The scheduled interval in seconds
+     */
+    public static void setScheduledSyncIntervalSeconds(Context context, int intervalSeconds) {
+        getSyncSchedule(context).edit()
+                .putInt(KEY_SCHEDULED_SYNC_INTERVAL, intervalSeconds)
+                .apply();
+    }
+
+    /**
+     * Returns the hash of the last payload that was delivered to the wearable, together with
+     * the nodes it was delivered to.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The hash, or -1 if nothing was delivered yet
+     */
+    public static long getWearablePayloadHash(Context context) {
+        return getWearablePush(context).getLong(KEY_WEARABLE_PAYLOAD_HASH, -1);
+    }
+
+    /**
+     * Saves the hash of a payload that was delivered to the wearable, together with the nodes
+     * it was delivered to.
+     *
+     * @param context Used to access SharedPreferences
+     * @param hash    The hash of the payload and the nodes, never negative
+     */
+    public static void setWearablePayloadHash(Context context, long hash) {
+        getWearablePush(context).edit().putLong(KEY_WEARABLE_PAYLOAD_HASH, hash).apply();
+    }
+
+    private static SharedPreferences getWearablePush(Context context) {
+        return context.getSharedPreferences(WEARABLE_PUSH_FILE, Context.MODE_PRIVATE);
+    }
+
+    private static SharedPreferences getSyncSchedule(Context context) {
+        return context.getSharedPreferences(SYNC_SCHEDULE_FILE, Context.MODE_PRIVATE);
+    }
+
+    private static SharedPreferences getHttpValidators(Context context) {
+        return context.getSharedPreferences(HTTP_VALIDATORS_FILE, Context.MODE_PRIVATE);
+    }
 }
\ No newline at end of file
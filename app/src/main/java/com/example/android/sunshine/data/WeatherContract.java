@@ -56,6 +56,110 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /*
+     * Locations whose weather we store. On its own, this path is used to look at the location
+     * table. Following PATH_WEATHER, it is followed by a location setting to look at the weather
+     * for that location, as in
+     *
+     *     content://com.example.android.sunshine/weather/location/94043%2CUSA/
+     */
+    public static final String PATH_LOCATION = "location";
+
+    /*
+     * Query parameter that can be added to a URI passed to bulkInsert to change how the rows that
+     * are already in the table are treated. Without it, bulkInsert simply adds the new rows.
+     */
+    public static final String PARAM_WRITE_MODE = "write_mode";
+
+    /*
+     * Write mode that merges a complete forecast into the table. Only days that are new or whose
+     * weather changed are written, and days that are no longer part of the forecast are removed.
+     */
+    public static final String WRITE_MODE_MERGE = "merge";
+
+    /*
+     * Write mode that replaces everything in the table with the new rows. The old rows are deleted
+     * and the new ones inserted in the same transaction, so readers never see an empty table.
+     */
+    public static final String WRITE_MODE_REPLACE = "replace";
+
+    /*
+     * Method that can be passed to ContentResolver#call to write a whole forecast, held in a
+     * ForecastBatch, to the weather table. The batch goes in the extras under
+     * EXTRA_FORECAST_BATCH, and the argument is one of the write modes above (or null to simply
+     * add the rows). The number of days written comes back under EXTRA_ROWS_WRITTEN.
+     */
+    public static final String METHOD_WRITE_FORECAST = "write_forecast";
+    public static final String EXTRA_FORECAST_BATCH = "forecast_batch";
+    public static final String EXTRA_ROWS_WRITTEN = "rows_written";
+
+    /*
+     * Optional extra for METHOD_WRITE_FORECAST holding the location setting the forecast belongs
+     * to. Without it, the forecast is written for the user's preferred location.
+     */
+    public static final String EXTRA_LOCATION_SETTING = "location_setting";
+
+    /* Inner class that defines the table contents of the location table */
+    public static final class LocationEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the location table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_LOCATION)
+                .build();
+
+        /* Used internally as the name of our location table. */
+        public static final String TABLE_NAME = "location";
+
+        /*
+         * The location setting string is what is sent to the weather server as the location
+         * query, such as "94043,USA". It identifies the location, so it is unique.
+         */
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        /*
+         * The latitude and longitude of the location, as returned by the weather server. They
+         * are only known once a forecast for the location has been downloaded.
+         */
+        public static final String COLUMN_COORD_LAT = "coord_lat";
+        public static final String COLUMN_COORD_LONG = "coord_long";
+
+        /**
+         * Builds the URI that observers of the weather of a location other than the preferred
+         * one are notified at, as in
+         *
+         *     content://com.example.android.sunshine/location/94043%2CUSA/weather/
+         *
+         * It is not a descendant of {@link WeatherEntry#CONTENT_URI}, so observers of the
+         * preferred location's weather don't hear about the other locations. It is only meant
+         * to be observed; the weather itself is queried at
+         * {@link WeatherEntry#buildWeatherUriWithLocation(String)}.
+         *
+         * @param locationSetting The location setting of the location
+         * @return Uri to observe the weather of the location at
+         */
+        public static Uri buildWeatherNotificationUri(String locationSetting) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(locationSetting)
+                    .appendPath(PATH_WEATHER)
+                    .build();
+        }
+
+        /**
+         * Builds the URI that observers of the weather of a location other than the preferred
+         * one on a particular date are notified at. We assume a normalized date is passed to this
+         * method.
+         *
+         * @param locationSetting The location setting of the location
+         * @param date            Normalized date in milliseconds
+         * @return Uri to observe the weather of the location on the date at
+         */
+        public static Uri buildWeatherNotificationUriWithDate(String locationSetting, long date) {
+            return buildWeatherNotificationUri(locationSetting).buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+    }
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -85,6 +189,9 @@ public class WeatherContract {
          */
         public static final String COLUMN_DATE = "date";
 
+        /* The _ID of the row in the location table this weather belongs to */
+        public static final String COLUMN_LOC_KEY = "location_id";
+
         /* Weather ID as returned by API, used to identify the icon to be used */
         public static final String COLUMN_WEATHER_ID = "weather_id";
 
@@ -109,6 +216,9 @@ public class WeatherContract {
          */
         public static final String COLUMN_DEGREES = "degrees";
 
+        /* See getSqlSelectForTodayOnwards */
+        private static final String SQL_SELECT_TODAY_ONWARDS = COLUMN_DATE + " >= ?";
+
         /**
          * Builds a URI that adds the weather date to the end of the forecast content URI path.
          * This is used to query details about a single weather entry by date. This is what we
@@ -124,15 +234,107 @@ public class WeatherContract {
         }
 
         /**
-         * Returns just the selection part of the weather query from a normalized today value.
-         * This is used to get a weather forecast from today's date. To make this easy to use
-         * in compound selection, we embed today's date as an argument in the query.
+         * Builds a URI to look at the weather for a particular location, rather than the user's
+         * preferred location that {@link #CONTENT_URI} is for.
+         *
+         * @param locationSetting The location setting of the location, as in
+         *                        {@link LocationEntry#COLUMN_LOCATION_SETTING}
+         * @return Uri to query or insert the weather for a single location
+         */
+        public static Uri buildWeatherUriWithLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_LOCATION)
+                    .appendPath(locationSetting)
+                    .build();
+        }
+
+        /**
+         * Builds a URI to look at the weather for a particular location on a particular date.
+         * We assume a normalized date is passed to this method.
+         *
+         * @param locationSetting The location setting of the location
+         * @param date            Normalized date in milliseconds
+         * @return Uri to query details about a single weather entry for a location
+         */
+        public static Uri buildWeatherUriWithLocationAndDate(String locationSetting, long date) {
+            return buildWeatherUriWithLocation(locationSetting).buildUpon()
+                    .appendPath(Long.toString(date))
+                    .build();
+        }
+
+        /**
+         * Returns the location setting from a URI built by
+         * {@link #buildWeatherUriWithLocation(String)} or
+         * {@link #buildWeatherUriWithLocationAndDate(String, long)}.
+         *
+         * @param uri The URI to read the location setting from
+         * @return The location setting of the URI
+         */
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+
+        /**
+         * Builds a URI that can be passed to bulkInsert to merge a complete forecast into the
+         * weather table, rather than adding it to whatever is there. See
+         * {@link WeatherContract#WRITE_MODE_MERGE}.
+         *
+         * @return Uri to bulkInsert a forecast into incrementally
+         */
+        public static Uri buildWeatherUriForMerge() {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_WRITE_MODE, WRITE_MODE_MERGE)
+                    .build();
+        }
+
+        /**
+         * Builds a URI that can be passed to bulkInsert to replace the contents of the weather
+         * table with a new forecast in one go. See {@link WeatherContract#WRITE_MODE_REPLACE}.
+         *
+         * @return Uri to bulkInsert a forecast into, replacing what is stored
+         */
+        public static Uri buildWeatherUriForReplace() {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_WRITE_MODE, WRITE_MODE_REPLACE)
+                    .build();
+        }
+
+        /**
+         * Adds a write mode to any of the weather URIs that bulkInsert accepts, such as a URI
+         * built by {@link #buildWeatherUriWithLocation(String)}.
+         *
+         * @param weatherUri The URI to insert into
+         * @param writeMode  One of the write modes in {@link WeatherContract}
+         * @return Uri to bulkInsert a forecast into with the given write mode
+         */
+        public static Uri buildWeatherUriWithWriteMode(Uri weatherUri, String writeMode) {
+            return weatherUri.buildUpon()
+                    .appendQueryParameter(PARAM_WRITE_MODE, writeMode)
+                    .build();
+        }
+
+        /**
+         * Returns just the selection part of the weather query for today onwards. Today's date
+         * is not part of the selection, but bound to its "?" through
+         * {@link #getSelectionArgsForTodayOnwards()}. That way the SQL of the query is the same
+         * every time it's run, so SQLite can reuse the statement it prepared the last time
+         * rather than compiling a new one for every date.
          *
          * @return The selection part of the weather query for today onwards
          */
         public static String getSqlSelectForTodayOnwards() {
+            return SQL_SELECT_TODAY_ONWARDS;
+        }
+
+        /**
+         * Returns the selection arguments for {@link #getSqlSelectForTodayOnwards()}, which hold
+         * today's normalized date. Call this every time the query is run, as today changes.
+         *
+         * @return The selection arguments of the weather query for today onwards
+         */
+        public static String[] getSelectionArgsForTodayOnwards() {
             long normalizedUtcNow = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
-            return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcNow;
+            return new String[]{Long.toString(normalizedUtcNow)};
         }
     }
 }
\ No newline at end of file
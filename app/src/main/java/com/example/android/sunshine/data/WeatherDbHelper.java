@@ -15,10 +15,15 @@
  */
 package com.example.android.sunshine.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
 
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
 /**
@@ -42,11 +47,173 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * versions of Sunshine could cause everything to break. Although that is certainly a rare
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
+     *
+     * Version 4 added the location table, and the location key to the weather table.
+     * Version 5 added INDEX_WEATHER_SUMMARY.
+     */
+    private static final int DATABASE_VERSION = 5;
+
+    /* The oldest version whose tables can be upgraded without discarding them */
+    private static final int FIRST_MIGRATABLE_VERSION = 4;
+
+    /*
+     * Index that answers the forecast lists, the notification and the check for data on its own:
+     * the weather of one location from a date onwards, sorted by date. As it also holds the
+     * columns those queries read (and, like every index, the _ID), SQLite never has to look at
+     * the table itself, nor sort the rows afterwards. The detail screen reads every column, and
+     * finds its single row through the UNIQUE constraint instead.
+     */
+    static final String INDEX_WEATHER_SUMMARY = "weather_summary_index";
+
+    /* The values PRAGMA synchronous accepts, see setSynchronousMode */
+    public static final String SYNCHRONOUS_OFF = "OFF";
+    public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+    public static final String SYNCHRONOUS_FULL = "FULL";
+
+    /*
+     * A forecast is a few kilobytes, so the log is checkpointed long before it reaches SQLite's
+     * default of 1000 pages. The checkpoint interval makes sure a log that only grows slowly is
+     * still folded into the database regularly, so readers never have to search a long log.
+     */
+    private static final int DEFAULT_AUTO_CHECKPOINT_PAGES = 100;
+    private static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 15 * 60 * 1000;
+
+    /*
+     * With write-ahead logging, a write no longer locks the readers out of the database: the
+     * loaders keep reading the last committed forecast on connections of their own while the
+     * sync writes the next one. SQLiteDatabase keeps a pool of reader connections as soon as
+     * write-ahead logging is enabled.
+     */
+    private static volatile boolean sWriteAheadLoggingEnabled = true;
+
+    /*
+     * In WAL mode, NORMAL only syncs the log at checkpoints. A crash can lose the last forecast
+     * we wrote, but never corrupt the database, and the forecast can always be downloaded again.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static volatile String sSynchronousMode = SYNCHRONOUS_NORMAL;
+
+    private static volatile int sAutoCheckpointPages = DEFAULT_AUTO_CHECKPOINT_PAGES;
+    private static volatile long sCheckpointIntervalMillis = DEFAULT_CHECKPOINT_INTERVAL_MILLIS;
+
+    /* Whether this helper enabled write-ahead logging, and when the log was last checkpointed */
+    private boolean mWriteAheadLogging;
+    private long mLastCheckpointMillis;
 
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+        if (sWriteAheadLoggingEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+            mWriteAheadLogging = true;
+        }
+    }
+
+    /**
+     * Switches write-ahead logging on or off for databases opened from now on. It is on by
+     * default; this exists so that the two journal modes can be compared.
+     *
+     * @param enabled true to open the database in WAL mode, false to use a rollback journal
+     */
+    public static void setUseWriteAheadLogging(boolean enabled) {
+        sWriteAheadLoggingEnabled = enabled;
+    }
+
+    /**
+     * Sets how hard SQLite works to make each commit durable, for databases opened from now on.
+     *
+     * @param synchronousMode One of {@link #SYNCHRONOUS_OFF}, {@link #SYNCHRONOUS_NORMAL} or
+     *                        {@link #SYNCHRONOUS_FULL}
+     */
+    public static void setSynchronousMode(String synchronousMode) {
+        if (!SYNCHRONOUS_OFF.equals(synchronousMode)
+                && !SYNCHRONOUS_NORMAL.equals(synchronousMode)
+                && !SYNCHRONOUS_FULL.equals(synchronousMode)) {
+            throw new IllegalArgumentException("Unknown synchronous mode: " + synchronousMode);
+        }
+        sSynchronousMode = synchronousMode;
+    }
+
+    /**
+     * Sets when the write-ahead log is checkpointed into the database: as soon as it holds the
+     * given number of pages, and otherwise by the first write after the given interval.
+     *
+     * @param autoCheckpointPages      Size of the log, in pages, at which a commit checkpoints it
+     * @param checkpointIntervalMillis Time after which a write checkpoints the log regardless
+     */
+    public static void setCheckpointPolicy(int autoCheckpointPages,
+                                           long checkpointIntervalMillis) {
+        sAutoCheckpointPages = autoCheckpointPages;
+        sCheckpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    /**
+     * Called when the database connection is being configured, before the tables are created or
+     * upgraded. Only API 16 and up call this; older versions are configured in onOpen.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        configurePragmas(sqLiteDatabase);
+    }
+
+    /**
+     * Called when the database has been opened. Before API 16 there is no onConfigure, so this
+     * is where write-ahead logging is enabled on those versions.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                || sqLiteDatabase.isReadOnly()) {
+            return;
+        }
+
+        if (sWriteAheadLoggingEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            mWriteAheadLogging = sqLiteDatabase.enableWriteAheadLogging();
+        }
+        configurePragmas(sqLiteDatabase);
+    }
+
+    private void configurePragmas(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("PRAGMA synchronous = " + sSynchronousMode);
+
+        if (mWriteAheadLogging) {
+            /* This pragma returns the new value, so it has to be run as a query */
+            Cursor cursor = sqLiteDatabase.rawQuery(
+                    "PRAGMA wal_autocheckpoint = " + sAutoCheckpointPages, null);
+            cursor.moveToFirst();
+            cursor.close();
+        }
+    }
+
+    /**
+     * Checkpoints the write-ahead log if it hasn't been for longer than the checkpoint interval.
+     * Call this after a write transaction has ended. The checkpoint is passive, so it never waits
+     * for the readers, and only copies what no reader still needs.
+     *
+     * @param sqLiteDatabase The database that was written to
+     */
+    public void checkpointIfDue(SQLiteDatabase sqLiteDatabase) {
+        if (!mWriteAheadLogging) {
+            return;
+        }
+
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            if (now - mLastCheckpointMillis < sCheckpointIntervalMillis) {
+                return;
+            }
+            mLastCheckpointMillis = now;
+        }
+
+        /* A query only runs once its cursor is moved */
+        Cursor cursor = sqLiteDatabase.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        cursor.moveToFirst();
+        cursor.close();
     }
 
     /**
@@ -58,6 +225,24 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
 
+        /*
+         * The location table holds one row for every location we store weather for. Its rows are
+         * identified by the location setting, which is what we send to the weather server.
+         */
+        final String SQL_CREATE_LOCATION_TABLE =
+
+                "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+
+                LocationEntry._ID                     + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, "              +
+
+                /* The coordinates are unknown until a forecast has been downloaded */
+                LocationEntry.COLUMN_COORD_LAT        + " REAL, "                              +
+                LocationEntry.COLUMN_COORD_LONG       + " REAL);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+
         /*
          * This String will contain a simple SQL statement that will create a table that will
          * cache our weather data.
@@ -75,6 +260,8 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
                 WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
 
+                WeatherEntry.COLUMN_LOC_KEY    + " INTEGER NOT NULL, "                 +
+
                 WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
 
                 WeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
@@ -87,27 +274,54 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
 
                 /*
-                 * To ensure this table can only contain one weather entry per date, we declare
-                 * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
-                 * SQLite that if we have a weather entry for a certain date and we attempt to
-                 * insert another weather entry with that date, we replace the old weather entry.
+                 * Every weather entry belongs to a location. Foreign key constraints are not
+                 * enforced, as we never turn them on, so this mostly documents the relationship.
+                 * WeatherProvider removes the weather of a location when it removes the location.
                  */
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                /*
+                 * To ensure this table can only contain one weather entry per date for each
+                 * location, we declare the date and location key to be unique together. We also
+                 * specify "ON CONFLICT REPLACE". This tells SQLite that if we have a weather
+                 * entry for a certain date and location and we attempt to insert another weather
+                 * entry with that date and location, we replace the old weather entry.
+                 */
+                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " + WeatherEntry.COLUMN_LOC_KEY +
+                ") ON CONFLICT REPLACE);";
 
         /*
          * After we've spelled out our SQLite table creation statement above, we actually execute
          * that SQL with the execSQL method of our SQLite database object.
          */
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+
+        createWeatherIndexes(sqLiteDatabase);
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Creates the indexes of the weather table, unless they already exist.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    private static void createWeatherIndexes(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_WEATHER_SUMMARY +
+                " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY    + ", " +
+                WeatherEntry.COLUMN_DATE       + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP   + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP   + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ");");
+    }
+
+    /**
+     * This database is only a cache for online data, so its upgrade policy for tables that
+     * predate the location table is simply to discard the data and call through to onCreate to
+     * recreate the tables. Newer versions only differ in their indexes, which are added to the
+     * tables as they are, so the cached forecasts survive the upgrade. Note that this only fires
+     * if you change the version number for your database (in our case, DATABASE_VERSION). It does
+     * NOT depend on the version number for your application found in your app/build.gradle file.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -115,7 +329,14 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < FIRST_MIGRATABLE_VERSION) {
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        /* Version 5 */
+        createWeatherIndexes(sqLiteDatabase);
     }
 }
\ No newline at end of file
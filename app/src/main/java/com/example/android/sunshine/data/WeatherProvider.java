@@ -20,12 +20,21 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.support.v4.util.LongSparseArray;
+import android.text.TextUtils;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.concurrent.CancellationException;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
  * bulkInsert data, query data, and delete data.
@@ -45,6 +54,9 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_WITH_LOCATION = 102;
+    public static final int CODE_WEATHER_WITH_LOCATION_AND_DATE = 103;
+    public static final int CODE_LOCATION = 200;
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -52,8 +64,89 @@ public class WeatherProvider extends ContentProvider {
      * common convention in Android programming.
      */
     private static final UriMatcher sUriMatcher = buildUriMatcher();
+
+    /*
+     * The columns, other than the date, that mergeForecast compares to decide whether the weather
+     * for a day has changed. All of them are numeric, so they can be compared as doubles.
+     */
+    private static final String[] MERGE_VALUE_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    /*
+     * Every column of the weather table other than _ID: the date followed by MERGE_VALUE_COLUMNS.
+     * This is the order in which SQL_INSERT_WEATHER expects its arguments.
+     */
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    /*
+     * Insert statement that is compiled once per write and then executed for every day, binding
+     * the values by position. This saves SQLiteDatabase#insert from building the SQL and binding
+     * each row through its ContentValues all over again. WEATHER_COLUMNS are bound first, then
+     * the location key.
+     */
+    private static final String SQL_INSERT_WEATHER = buildInsertSql(
+            WeatherContract.WeatherEntry.TABLE_NAME,
+            WEATHER_COLUMNS,
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+
+    /*
+     * Update statement for mergeForecast: MERGE_VALUE_COLUMNS are bound first, then the date and
+     * the location key.
+     */
+    private static final String SQL_UPDATE_WEATHER = buildUpdateSql(
+            WeatherContract.WeatherEntry.TABLE_NAME,
+            MERGE_VALUE_COLUMNS,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+
+    /*
+     * Selection that restricts the weather table to a single location, given its location
+     * setting. Looking the location up in a subquery saves us a query of our own.
+     */
+    private static final String SELECTION_LOCATION =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = (SELECT "
+                    + WeatherContract.LocationEntry._ID + " FROM "
+                    + WeatherContract.LocationEntry.TABLE_NAME + " WHERE "
+                    + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?)";
+
+    /*
+     * Whether bulkInsert converts its rows to a ForecastBatch and binds them to compiled
+     * statements, or calls SQLiteDatabase#insert for every row.
+     */
+    private static volatile boolean sCompiledInsertEnabled = true;
+
+    /* Whether the forecast cache answers the queries it can, see setForecastCacheEnabled */
+    private static volatile boolean sForecastCacheEnabled = true;
+
+    /*
+     * A two week forecast takes up about a kilobyte in the cache, so this holds the weather of
+     * many locations, or years of history for a few.
+     */
+    private static final long FORECAST_CACHE_MAX_BYTES = 256 * 1024;
+
+    /* The only sort order the forecast cache can answer, other than none */
+    private static final String SORT_BY_DATE = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
     private WeatherDbHelper mOpenHelper;
 
+    private final ForecastCache mForecastCache = new ForecastCache(FORECAST_CACHE_MAX_BYTES);
+
     /**
      * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
      * CODE_WEATHER_WITH_DATE constants defined above.
@@ -96,9 +189,93 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /*
+         * These URIs look like content://com.example.android.sunshine/weather/location/94043%2CUSA
+         * and the same followed by a date. They work like the two above, but for the location
+         * whose location setting follows PATH_LOCATION, rather than the preferred location.
+         */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_LOCATION + "/*",
+                CODE_WEATHER_WITH_LOCATION);
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_LOCATION + "/*/#",
+                CODE_WEATHER_WITH_LOCATION_AND_DATE);
+
+        /* This URI is content://com.example.android.sunshine/location/ */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION, CODE_LOCATION);
+
         return matcher;
     }
 
+    /**
+     * Builds an INSERT statement for the given columns with a "?" for each of their values.
+     *
+     * @param table      The table to insert into
+     * @param columns    The columns to insert, in the order their values will be bound
+     * @param lastColumn One more column to insert, whose value is bound last
+     * @return The SQL of the statement
+     */
+    private static String buildInsertSql(String table, String[] columns, String lastColumn) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (String column : columns) {
+            sql.append(column).append(", ");
+        }
+        sql.append(lastColumn).append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append("?, ");
+        }
+        return sql.append("?)").toString();
+    }
+
+    /**
+     * Builds an UPDATE statement that sets the given columns of the row with the given key.
+     *
+     * @param table      The table to update
+     * @param columns    The columns to set, in the order their values will be bound
+     * @param keyColumns The columns whose values, bound last, identify the row to update
+     * @return The SQL of the statement
+     */
+    private static String buildUpdateSql(String table, String[] columns, String... keyColumns) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ", " : "").append(columns[i]).append(" = ?");
+        }
+        for (int i = 0; i < keyColumns.length; i++) {
+            sql.append(i > 0 ? " AND " : " WHERE ").append(keyColumns[i]).append(" = ?");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Switches bulkInsert between binding its rows to compiled statements, by way of a
+     * {@link ForecastBatch}, and calling {@link SQLiteDatabase#insert} for every row. Compiled
+     * statements are used by default; this exists so that the two can be compared. Merges always
+     * use compiled statements.
+     *
+     * @param enabled true to insert rows through a compiled statement
+     */
+    public static void setCompiledInsertEnabled(boolean enabled) {
+        sCompiledInsertEnabled = enabled;
+    }
+
+    /**
+     * Switches the in-memory forecast cache on or off. It is on by default; this exists so that
+     * queries can be compared with and without it. Turning it off doesn't drop what is cached,
+     * but writes still invalidate it, so nothing stale is served when it is turned back on.
+     *
+     * @param enabled true to answer the queries the cache can answer from memory
+     */
+    public static void setForecastCacheEnabled(boolean enabled) {
+        sForecastCacheEnabled = enabled;
+    }
+
+    /**
+     * @return The in-memory forecast cache, to read its metrics
+     */
+    public ForecastCache getForecastCache() {
+        return mForecastCache;
+    }
+
     /**
      * In onCreate, we initialize our content provider on startup. This method is called for all
      * registered content providers on the application main thread at application launch time.
@@ -131,6 +308,11 @@ public class WeatherProvider extends ContentProvider {
      * for inserting a single row of data into our ContentProvider, and so we are only going to
      * implement bulkInsert. In a normal ContentProvider's implementation, you will probably want
      * to provide proper functionality for the insert method as well.
+     * <p>
+     * Rows inserted at {@link WeatherContract.WeatherEntry#CONTENT_URI} belong to the user's
+     * preferred location, and rows inserted at a URI built by
+     * {@link WeatherContract.WeatherEntry#buildWeatherUriWithLocation(String)} belong to that
+     * location. The location is added to the location table if it isn't there yet.
      *
      * @param uri    The content:// URI of the insertion request.
      * @param values An array of sets of column_name/value pairs to add to the database.
@@ -140,42 +322,594 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        String locationSetting;
 
         switch (sUriMatcher.match(uri)) {
 
             case CODE_WEATHER:
-                db.beginTransaction();
-                int rowsInserted = 0;
-                try {
-                    for (ContentValues value : values) {
-                        long weatherDate =
-                                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-                        if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
-                            throw new IllegalArgumentException("Date must be normalized to insert");
-                        }
-
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            rowsInserted++;
-                        }
+                locationSetting = getPreferredLocationSetting();
+                break;
+
+            case CODE_WEATHER_WITH_LOCATION:
+                locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                break;
+
+            default:
+                return super.bulkInsert(uri, values);
+        }
+
+        String writeMode = uri.getQueryParameter(WeatherContract.PARAM_WRITE_MODE);
+        boolean merge = WeatherContract.WRITE_MODE_MERGE.equals(writeMode);
+
+        /*
+         * Rows that hold exactly the columns of the weather table are converted to a
+         * ForecastBatch, and then written the same way as batches passed to call.
+         */
+        ForecastBatch batch = null;
+        if (sCompiledInsertEnabled || merge) {
+            batch = ForecastBatch.fromContentValues(values);
+        }
+
+        if (batch != null) {
+            return writeForecast(batch, writeMode, locationSetting);
+        }
+
+        if (merge) {
+            throw new IllegalArgumentException(
+                    "Rows to merge must hold exactly the columns of the weather table");
+        }
+
+        return insertWeather(values,
+                WeatherContract.WRITE_MODE_REPLACE.equals(writeMode),
+                locationSetting);
+    }
+
+    /**
+     * Handles {@link WeatherContract#METHOD_WRITE_FORECAST}, which writes a {@link ForecastBatch}
+     * straight to the weather table. Unlike bulkInsert, this doesn't need a set of ContentValues
+     * for every day. See {@link WeatherContract#METHOD_WRITE_FORECAST} for the arguments.
+     *
+     * @param method The method to call
+     * @param arg    The write mode, or null to simply add the days in the batch
+     * @param extras Holds the ForecastBatch to write, and optionally its location setting
+     * @return A Bundle holding the number of days that were written
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        if (!WeatherContract.METHOD_WRITE_FORECAST.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+
+        ForecastBatch batch = null;
+        String locationSetting = null;
+        if (extras != null) {
+            extras.setClassLoader(ForecastBatch.class.getClassLoader());
+            batch = extras.getParcelable(WeatherContract.EXTRA_FORECAST_BATCH);
+            locationSetting = extras.getString(WeatherContract.EXTRA_LOCATION_SETTING);
+        }
+        if (batch == null) {
+            throw new IllegalArgumentException(
+                    "No " + WeatherContract.EXTRA_FORECAST_BATCH + " to write");
+        }
+        if (locationSetting == null) {
+            locationSetting = getPreferredLocationSetting();
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_ROWS_WRITTEN,
+                writeForecast(batch, arg, locationSetting));
+        return result;
+    }
+
+    /**
+     * Writes a forecast for a location to the weather table with the given write mode. Every
+     * day is bound straight from the batch's arrays to a compiled statement. The location row is
+     * created or updated in the same transaction, so each location's forecast is committed as a
+     * whole or not at all.
+     * <p>
+     * When replacing, the old rows of the location are deleted in the same transaction as the
+     * new ones are inserted. Nobody can observe the location's weather while it is empty, and
+     * observers are only notified once, for the delete and the insert together.
+     * <p>
+     * Observers are notified per day, at the date URI of every day that was written or
+     * deleted, and only after the transaction has been committed, so a write results in a
+     * single burst of notifications. Someone looking at one day isn't bothered by the others.
+     *
+     * @param batch           The forecast to write
+     * @param writeMode       One of the write modes in {@link WeatherContract}, or null to simply
+     *                        add the days in the batch
+     * @param locationSetting The location the forecast is for
+     * @return The number of days that were written
+     */
+    private int writeForecast(ForecastBatch batch, String writeMode, String locationSetting) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        boolean merge = WeatherContract.WRITE_MODE_MERGE.equals(writeMode);
+        boolean replace = WeatherContract.WRITE_MODE_REPLACE.equals(writeMode);
+
+        /* Every date that was inserted, updated or deleted */
+        LongSparseArray<Boolean> affectedDates = new LongSparseArray<>();
+        int rowsWritten;
+
+        db.beginTransaction();
+        try {
+            long locationId = getOrCreateLocationId(db, locationSetting, batch);
+
+            if (merge) {
+                rowsWritten = mergeForecast(db, batch, locationId, affectedDates);
+            } else {
+                if (replace) {
+                    deleteLocationWeather(db, locationId, affectedDates);
+                }
+                rowsWritten = insertForecast(db, batch, locationId, affectedDates);
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mForecastCache.invalidate(locationSetting);
+        }
+        mOpenHelper.checkpointIfDue(db);
+
+        notifyWeatherChanged(locationSetting, affectedDates);
+
+        return rowsWritten;
+    }
+
+    /**
+     * Inserts every day of a batch for a location. Must be called within a transaction.
+     *
+     * @param db            The database to write to
+     * @param batch         The forecast to insert
+     * @param locationId    The _ID of the location the forecast is for
+     * @param affectedDates Receives every date that was inserted
+     * @return The number of days that were inserted
+     */
+    private static int insertForecast(SQLiteDatabase db, ForecastBatch batch, long locationId,
+                                      LongSparseArray<Boolean> affectedDates) {
+        int rowsInserted = 0;
+
+        SQLiteStatement insertStatement = db.compileStatement(SQL_INSERT_WEATHER);
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                throwIfInterrupted();
+                if (!SunshineDateUtils.isDateNormalized(batch.getDate(i))) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                bindWeatherRow(insertStatement, batch, i, locationId);
+                if (insertStatement.executeInsert() != -1) {
+                    rowsInserted++;
+                    affectedDates.put(batch.getDate(i), Boolean.TRUE);
+                }
+            }
+        } finally {
+            insertStatement.close();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Inserts rows that can't be converted to a {@link ForecastBatch}, such as rows that specify
+     * their own _ID, one at a time with {@link SQLiteDatabase#insert}. Rows that don't specify a
+     * location key are added to the given location.
+     *
+     * @param values          The rows to insert
+     * @param replace         true to delete all of the location's stored rows in the same
+     *                        transaction
+     * @param locationSetting The location the rows are for
+     * @return The number of rows that were inserted
+     */
+    private int insertWeather(ContentValues[] values, boolean replace, String locationSetting) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        LongSparseArray<Boolean> affectedDates = new LongSparseArray<>();
+
+        db.beginTransaction();
+        int rowsInserted = 0;
+        try {
+            long locationId = getOrCreateLocationId(db, locationSetting, null);
+
+            if (replace) {
+                deleteLocationWeather(db, locationId, affectedDates);
+            }
+
+            for (ContentValues value : values) {
+                throwIfInterrupted();
+                long weatherDate = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                if (!value.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)) {
+                    value = new ContentValues(value);
+                    value.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                }
+
+                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                if (_id != -1) {
+                    rowsInserted++;
+                    affectedDates.put(weatherDate, Boolean.TRUE);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mForecastCache.invalidate(locationSetting);
+        }
+        mOpenHelper.checkpointIfDue(db);
+
+        notifyWeatherChanged(locationSetting, affectedDates);
+
+        return rowsInserted;
+    }
+
+    /**
+     * Deletes every stored day of a location, remembering the dates that were deleted so that
+     * their observers can be notified. Must be called within a transaction.
+     *
+     * @param db            The database to write to
+     * @param locationId    The _ID of the location
+     * @param affectedDates Receives every date that was deleted
+     */
+    private static void deleteLocationWeather(SQLiteDatabase db, long locationId,
+                                              LongSparseArray<Boolean> affectedDates) {
+        String[] locationArgs = new String[]{Long.toString(locationId)};
+
+        Cursor storedCursor = db.query(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ",
+                locationArgs,
+                null,
+                null,
+                null);
+        try {
+            while (storedCursor.moveToNext()) {
+                affectedDates.put(storedCursor.getLong(0), Boolean.TRUE);
+            }
+        } finally {
+            storedCursor.close();
+        }
+
+        db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ",
+                locationArgs);
+    }
+
+    /**
+     * A sync that is canceled interrupts the thread that is writing its forecast. As the
+     * provider runs in the same process, that is the thread calling into the provider. The
+     * exception is thrown within the transaction, which is then rolled back.
+     *
+     * @throws CancellationException If the calling thread was interrupted
+     */
+    private static void throwIfInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("The write was canceled");
+        }
+    }
+
+    /**
+     * Returns the _ID of a location, adding the location to the location table if it isn't
+     * there yet. If the batch knows the coordinates of the location, they are stored as well.
+     * Must be called within a transaction.
+     *
+     * @param db              The database to write to
+     * @param locationSetting The location setting of the location
+     * @param batch           A forecast for the location, or null
+     * @return The _ID of the location
+     */
+    private static long getOrCreateLocationId(SQLiteDatabase db, String locationSetting,
+                                              ForecastBatch batch) {
+        ContentValues locationValues = new ContentValues();
+        if (batch != null && batch.hasCityCoordinates()) {
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                    batch.getCityLatitude());
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                    batch.getCityLongitude());
+        }
+
+        String[] selectionArgs = new String[]{locationSetting};
+        Cursor locationCursor = db.query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ",
+                selectionArgs,
+                null,
+                null,
+                null);
+        try {
+            if (locationCursor.moveToFirst()) {
+                if (locationValues.size() > 0) {
+                    db.update(WeatherContract.LocationEntry.TABLE_NAME,
+                            locationValues,
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ",
+                            selectionArgs);
+                }
+                return locationCursor.getLong(0);
+            }
+        } finally {
+            locationCursor.close();
+        }
+
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return db.insertOrThrow(WeatherContract.LocationEntry.TABLE_NAME, null, locationValues);
+    }
+
+    /**
+     * Binds one day of a batch to a statement compiled from {@link #SQL_INSERT_WEATHER}.
+     *
+     * @param statement  The compiled insert statement
+     * @param batch      The forecast to read the values from
+     * @param i          The day of the forecast to bind
+     * @param locationId The _ID of the location the forecast is for
+     */
+    private static void bindWeatherRow(SQLiteStatement statement, ForecastBatch batch, int i,
+                                       long locationId) {
+        statement.bindLong(1, batch.getDate(i));
+        bindWeatherValues(statement, 2, batch, i);
+        statement.bindLong(WEATHER_COLUMNS.length + 1, locationId);
+    }
+
+    /**
+     * Binds the values of {@link #MERGE_VALUE_COLUMNS} for one day of a batch to consecutive
+     * arguments of a compiled statement.
+     *
+     * @param statement  The compiled statement
+     * @param firstIndex Index of the argument to bind the weather ID to (the first one is 1)
+     * @param batch      The forecast to read the values from
+     * @param i          The day of the forecast to bind
+     */
+    private static void bindWeatherValues(SQLiteStatement statement, int firstIndex,
+                                          ForecastBatch batch, int i) {
+        statement.bindLong(firstIndex, batch.getWeatherId(i));
+        statement.bindDouble(firstIndex + 1, batch.getMinTemp(i));
+        statement.bindDouble(firstIndex + 2, batch.getMaxTemp(i));
+        statement.bindDouble(firstIndex + 3, batch.getHumidity(i));
+        statement.bindDouble(firstIndex + 4, batch.getPressure(i));
+        statement.bindDouble(firstIndex + 5, batch.getWindSpeed(i));
+        statement.bindDouble(firstIndex + 6, batch.getDegrees(i));
+    }
+
+    /**
+     * Merges a complete forecast into the weather of a location. The new rows are compared with
+     * the rows already stored by date, and only the days that are new or whose weather changed
+     * are written. Days that are no longer part of the forecast are deleted. Must be called
+     * within a transaction; the caller notifies the observers of the affected dates afterwards,
+     * so if nothing changed nobody has to requery.
+     *
+     * @param db            The database to write to
+     * @param batch         The complete forecast
+     * @param locationId    The _ID of the location the forecast is for
+     * @param affectedDates Receives every date that was inserted, updated or deleted
+     * @return The number of days that were inserted or updated
+     */
+    private static int mergeForecast(SQLiteDatabase db, ForecastBatch batch, long locationId,
+                                     LongSparseArray<Boolean> affectedDates) {
+        int rowsWritten = 0;
+        String[] locationArgs = new String[]{Long.toString(locationId)};
+
+        SQLiteStatement insertStatement = null;
+        SQLiteStatement updateStatement = null;
+        try {
+            /* Read what we have stored for this location, keyed by date */
+            LongSparseArray<double[]> storedWeather = new LongSparseArray<>();
+            Cursor storedCursor = db.query(
+                    WeatherContract.WeatherEntry.TABLE_NAME,
+                    WEATHER_COLUMNS,
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ",
+                    locationArgs,
+                    null,
+                    null,
+                    null);
+            try {
+                while (storedCursor.moveToNext()) {
+                    double[] storedValues = new double[MERGE_VALUE_COLUMNS.length];
+                    for (int i = 0; i < storedValues.length; i++) {
+                        storedValues[i] = storedCursor.getDouble(i + 1);
                     }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                    storedWeather.put(storedCursor.getLong(0), storedValues);
+                }
+            } finally {
+                storedCursor.close();
+            }
+
+            LongSparseArray<Boolean> forecastDates = new LongSparseArray<>(batch.size());
+
+            for (int i = 0; i < batch.size(); i++) {
+                throwIfInterrupted();
+                long weatherDate = batch.getDate(i);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
                 }
+                forecastDates.put(weatherDate, Boolean.TRUE);
+
+                double[] storedValues = storedWeather.get(weatherDate);
+
+                if (storedValues == null) {
+                    if (insertStatement == null) {
+                        insertStatement = db.compileStatement(SQL_INSERT_WEATHER);
+                    }
+                    bindWeatherRow(insertStatement, batch, i, locationId);
+                    if (insertStatement.executeInsert() != -1) {
+                        rowsWritten++;
+                        affectedDates.put(weatherDate, Boolean.TRUE);
+                    }
+                } else if (!isSameWeather(storedValues, batch, i)) {
+                    if (updateStatement == null) {
+                        updateStatement = db.compileStatement(SQL_UPDATE_WEATHER);
+                    }
+                    bindWeatherValues(updateStatement, 1, batch, i);
+                    updateStatement.bindLong(MERGE_VALUE_COLUMNS.length + 1, weatherDate);
+                    updateStatement.bindLong(MERGE_VALUE_COLUMNS.length + 2, locationId);
 
-                if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    /*
+                     * executeUpdateDelete, which returns the row count, needs API 11. We read
+                     * this row within the same transaction, so we know it is there.
+                     */
+                    updateStatement.execute();
+                    rowsWritten++;
+                    affectedDates.put(weatherDate, Boolean.TRUE);
                 }
+            }
+
+            /* Anything stored that isn't part of the new forecast has expired */
+            for (int i = 0; i < storedWeather.size(); i++) {
+                long storedDate = storedWeather.keyAt(i);
+                if (forecastDates.get(storedDate) == null) {
+                    db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                            WeatherContract.WeatherEntry.COLUMN_DATE + " = ? AND "
+                                    + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ",
+                            new String[]{Long.toString(storedDate), locationArgs[0]});
+                    affectedDates.put(storedDate, Boolean.TRUE);
+                }
+            }
+        } finally {
+            if (insertStatement != null) {
+                insertStatement.close();
+            }
+            if (updateStatement != null) {
+                updateStatement.close();
+            }
+        }
+
+        return rowsWritten;
+    }
+
+    /**
+     * Notifies the observers of every day of a location's weather that changed in a write, one
+     * date URI after the other. Observers of a single day, such as the detail screen, only hear
+     * about their own day. Observers of the whole location receive one notification per changed
+     * day, as they are registered for descendant URIs; coalescing those into a single reload is
+     * up to them, as MainActivity's loader does with its update throttle. Notifying the whole
+     * location once instead would also reach the observers of every single day. If nothing
+     * changed, no notification is sent at all.
+     *
+     * @param locationSetting The location whose weather changed
+     * @param affectedDates   The dates that changed
+     */
+    private void notifyWeatherChanged(String locationSetting,
+                                      LongSparseArray<Boolean> affectedDates) {
+        for (int i = 0; i < affectedDates.size(); i++) {
+            getContext().getContentResolver().notifyChange(
+                    getWeatherNotificationUri(locationSetting, affectedDates.keyAt(i)),
+                    null);
+        }
+    }
+
+    /**
+     * Compares a stored row, as read by {@link #mergeForecast}, with a day of the new forecast.
+     *
+     * @param storedValues Values of {@link #MERGE_VALUE_COLUMNS} in the stored row
+     * @param batch        The new forecast
+     * @param i            The day of the new forecast with the same date as the stored row
+     * @return true if none of the weather values changed
+     */
+    private static boolean isSameWeather(double[] storedValues, ForecastBatch batch, int i) {
+        return storedValues[0] == batch.getWeatherId(i)
+                && Double.compare(storedValues[1], batch.getMinTemp(i)) == 0
+                && Double.compare(storedValues[2], batch.getMaxTemp(i)) == 0
+                && Double.compare(storedValues[3], batch.getHumidity(i)) == 0
+                && Double.compare(storedValues[4], batch.getPressure(i)) == 0
+                && Double.compare(storedValues[5], batch.getWindSpeed(i)) == 0
+                && Double.compare(storedValues[6], batch.getDegrees(i)) == 0;
+    }
+
+    /**
+     * @return The location setting of the user's preferred location, which is the location the
+     * weather at {@link WeatherContract.WeatherEntry#CONTENT_URI} belongs to
+     */
+    private String getPreferredLocationSetting() {
+        return SunshinePreferences.getPreferredWeatherLocation(getContext());
+    }
 
-                return rowsInserted;
+    /**
+     * Returns the URI that observers of a location's weather are notified at. The weather of the
+     * preferred location is notified at {@link WeatherContract.WeatherEntry#CONTENT_URI}, and
+     * that of the other locations outside of it, so that the forecast list doesn't reload when
+     * another location is synced.
+     *
+     * @param locationSetting The location
+     * @return The URI of the location's weather
+     */
+    private Uri getWeatherNotificationUri(String locationSetting) {
+        if (locationSetting.equals(getPreferredLocationSetting())) {
+            return WeatherContract.WeatherEntry.CONTENT_URI;
+        }
+        return WeatherContract.LocationEntry.buildWeatherNotificationUri(locationSetting);
+    }
+
+    /**
+     * Returns the URI that observers of a location's weather on one date are notified at.
+     *
+     * @param locationSetting The location
+     * @param date            Normalized date in milliseconds
+     * @return The URI of the location's weather on the date
+     */
+    private Uri getWeatherNotificationUri(String locationSetting, long date) {
+        if (locationSetting.equals(getPreferredLocationSetting())) {
+            return WeatherContract.WeatherEntry.buildWeatherUriWithDate(date);
+        }
+        return WeatherContract.LocationEntry
+                .buildWeatherNotificationUriWithDate(locationSetting, date);
+    }
 
+    /**
+     * Returns the URI a cursor from a query should watch for changes.
+     *
+     * @param uri   The URI that was queried
+     * @param match The code sUriMatcher matched the URI with
+     * @return The URI the weather of the queried location is notified at, or the queried URI
+     * itself for everything else
+     */
+    private Uri getNotificationUri(Uri uri, int match) {
+        switch (match) {
+            case CODE_WEATHER_WITH_LOCATION:
+                return getWeatherNotificationUri(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+            case CODE_WEATHER_WITH_LOCATION_AND_DATE:
+                return getWeatherNotificationUri(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                        Long.parseLong(uri.getLastPathSegment()));
             default:
-                return super.bulkInsert(uri, values);
+                return uri;
         }
     }
 
+    /**
+     * Restricts a selection on the weather table to a single location. The location setting
+     * must be appended to the selection arguments, see {@link #appendSelectionArg}.
+     *
+     * @param selection The selection to restrict, may be null
+     * @return The selection, restricted to the location
+     */
+    private static String appendLocationSelection(String selection) {
+        if (TextUtils.isEmpty(selection)) {
+            return SELECTION_LOCATION;
+        }
+        return "(" + selection + ") AND " + SELECTION_LOCATION;
+    }
+
+    /**
+     * Adds an argument to the end of a set of selection arguments.
+     *
+     * @param selectionArgs The selection arguments, may be null
+     * @param arg           The argument to add
+     * @return A new array holding selectionArgs followed by arg
+     */
+    private static String[] appendSelectionArg(String[] selectionArgs, String arg) {
+        if (selectionArgs == null) {
+            return new String[]{arg};
+        }
+        String[] appendedArgs = new String[selectionArgs.length + 1];
+        System.arraycopy(selectionArgs, 0, appendedArgs, 0, selectionArgs.length);
+        appendedArgs[selectionArgs.length] = arg;
+        return appendedArgs;
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -195,13 +929,22 @@ public class WeatherProvider extends ContentProvider {
     public Cursor query(@NonNull Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
 
-        Cursor cursor;
+        int match = sUriMatcher.match(uri);
+
+        /* The weather of the preferred location can often be answered from memory */
+        Cursor cursor = queryForecastCache(uri, match, projection, selection, selectionArgs,
+                sortOrder);
+        if (cursor != null) {
+            cursor.setNotificationUri(getContext().getContentResolver(),
+                    getNotificationUri(uri, match));
+            return cursor;
+        }
 
         /*
          * Here's the switch statement that, given a URI, will determine what kind of request is
          * being made and query the database accordingly.
          */
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
 
             /*
              * When sUriMatcher's match method is called with a URI that looks something like this
@@ -225,14 +968,6 @@ public class WeatherProvider extends ContentProvider {
                  */
                 String normalizedUtcDateString = uri.getLastPathSegment();
 
-                /*
-                 * The query method accepts a string array of arguments, as there may be more
-                 * than one "?" in the selection statement. Even though in our case, we only have
-                 * one "?", we have to create a string array that only contains one element
-                 * because this method signature accepts a string array.
-                 */
-                String[] selectionArguments = new String[]{normalizedUtcDateString};
-
                 cursor = mOpenHelper.getReadableDatabase().query(
                         /* Table we are going to query */
                         WeatherContract.WeatherEntry.TABLE_NAME,
@@ -247,13 +982,35 @@ public class WeatherProvider extends ContentProvider {
                          * The URI that matches CODE_WEATHER_WITH_DATE contains a date at the end
                          * of it. We extract that date and use it with these next two lines to
                          * specify the row of weather we want returned in the cursor. We use a
-                         * question mark here and then designate selectionArguments as the next
+                         * question mark here and then designate the selection arguments as the next
                          * argument for performance reasons. Whatever Strings are contained
-                         * within the selectionArguments array will be inserted into the
-                         * selection statement by SQLite under the hood.
+                         * within the selection arguments will be inserted into the selection
+                         * statement by SQLite under the hood. The weather is restricted to the
+                         * preferred location, which the URI is for.
                          */
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
-                        selectionArguments,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? AND " + SELECTION_LOCATION,
+                        new String[]{normalizedUtcDateString, getPreferredLocationSetting()},
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /*
+             * The same as CODE_WEATHER_WITH_DATE, but for the location whose location setting is
+             * part of the URI, as in
+             *
+             *      content://com.example.android.sunshine/weather/location/94043%2CUSA/1472214172
+             */
+            case CODE_WEATHER_WITH_LOCATION_AND_DATE: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        projection,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? AND " + SELECTION_LOCATION,
+                        new String[]{
+                                uri.getLastPathSegment(),
+                                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri)},
                         null,
                         null,
                         sortOrder);
@@ -270,12 +1027,41 @@ public class WeatherProvider extends ContentProvider {
              * to return all of the weather in our weather table.
              *
              * In this case, we want to return a cursor that contains every row of weather data
-             * in our weather table.
+             * in our weather table for the user's preferred location.
              */
             case CODE_WEATHER: {
                 cursor = mOpenHelper.getReadableDatabase().query(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
+                        appendLocationSelection(selection),
+                        appendSelectionArg(selectionArgs, getPreferredLocationSetting()),
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /* The same as CODE_WEATHER, but for the location whose setting is part of the URI */
+            case CODE_WEATHER_WITH_LOCATION: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        projection,
+                        appendLocationSelection(selection),
+                        appendSelectionArg(selectionArgs,
+                                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri)),
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /* Every location we store weather for */
+            case CODE_LOCATION: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.LocationEntry.TABLE_NAME,
+                        projection,
                         selection,
                         selectionArgs,
                         null,
@@ -289,10 +1075,105 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(),
+                getNotificationUri(uri, match));
         return cursor;
     }
 
+    /**
+     * Answers a query for the weather of the preferred location from the forecast cache, reading
+     * the location's weather into the cache first if needed. Only the queries Sunshine itself
+     * runs can be answered this way: every day, every day from a date onwards or a single day,
+     * sorted by date, with any of the columns of the weather table.
+     *
+     * @return A cursor holding the result of the query, or null if the query has to go to SQLite
+     */
+    private Cursor queryForecastCache(Uri uri, int match, String[] projection, String selection,
+                                      String[] selectionArgs, String sortOrder) {
+        if (!sForecastCacheEnabled
+                || !ForecastSnapshot.hasColumns(projection)
+                || (sortOrder != null && !SORT_BY_DATE.equalsIgnoreCase(sortOrder.trim()))) {
+            return null;
+        }
+
+        long fromDate;
+        long toDate;
+        try {
+            if (match == CODE_WEATHER_WITH_DATE && selection == null) {
+                fromDate = Long.parseLong(uri.getLastPathSegment());
+                toDate = fromDate;
+            } else if (match == CODE_WEATHER && selection == null) {
+                fromDate = Long.MIN_VALUE;
+                toDate = Long.MAX_VALUE;
+            } else if (match == CODE_WEATHER
+                    && WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards().equals(selection)
+                    && selectionArgs != null
+                    && selectionArgs.length == 1) {
+                fromDate = Long.parseLong(selectionArgs[0]);
+                toDate = Long.MAX_VALUE;
+            } else {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        return getForecastSnapshot(getPreferredLocationSetting())
+                .query(projection, fromDate, toDate);
+    }
+
+    /**
+     * Returns the weather of a location from the forecast cache, reading it from the database
+     * and caching it if it isn't cached yet.
+     *
+     * @param locationSetting The location
+     * @return Every row of the location's weather
+     */
+    private ForecastSnapshot getForecastSnapshot(String locationSetting) {
+        ForecastSnapshot snapshot = mForecastCache.get(locationSetting);
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        long generation = mForecastCache.getGeneration();
+
+        Cursor weatherCursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                ForecastSnapshot.COLUMNS,
+                SELECTION_LOCATION,
+                new String[]{locationSetting},
+                null,
+                null,
+                SORT_BY_DATE);
+        try {
+            int size = weatherCursor.getCount();
+            long locationId = -1;
+            long[] ids = new long[size];
+            ForecastBatch forecast = new ForecastBatch(size);
+
+            /* The columns are in the order of ForecastSnapshot.COLUMNS */
+            for (int i = 0; weatherCursor.moveToNext(); i++) {
+                ids[i] = weatherCursor.getLong(0);
+                locationId = weatherCursor.getLong(2);
+                forecast.add(weatherCursor.getLong(1),
+                        weatherCursor.getInt(3),
+                        weatherCursor.getDouble(4),
+                        weatherCursor.getDouble(5),
+                        weatherCursor.getDouble(6),
+                        weatherCursor.getDouble(7),
+                        weatherCursor.getDouble(8),
+                        weatherCursor.getDouble(9));
+            }
+
+            snapshot = new ForecastSnapshot(locationId, ids, forecast);
+        } finally {
+            weatherCursor.close();
+        }
+
+        mForecastCache.put(locationSetting, snapshot, generation);
+        return snapshot;
+    }
+
     /**
      * Deletes data at a given URI with optional arguments for more fine tuned deletions.
      *
@@ -316,13 +1197,40 @@ public class WeatherProvider extends ContentProvider {
          */
         if (null == selection) selection = "1";
 
-        switch (sUriMatcher.match(uri)) {
+        int match = sUriMatcher.match(uri);
+        switch (match) {
 
-            case CODE_WEATHER:
-                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        selection,
-                        selectionArgs);
+            case CODE_WEATHER: {
+                String locationSetting = getPreferredLocationSetting();
+                try {
+                    numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME,
+                            appendLocationSelection(selection),
+                            appendSelectionArg(selectionArgs, locationSetting));
+                } finally {
+                    mForecastCache.invalidate(locationSetting);
+                }
+
+                break;
+            }
+
+            case CODE_WEATHER_WITH_LOCATION: {
+                String locationSetting =
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                try {
+                    numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME,
+                            appendLocationSelection(selection),
+                            appendSelectionArg(selectionArgs, locationSetting));
+                } finally {
+                    mForecastCache.invalidate(locationSetting);
+                }
+
+                break;
+            }
+
+            case CODE_LOCATION:
+                numRowsDeleted = deleteLocations(selection, selectionArgs);
 
                 break;
 
@@ -330,14 +1238,53 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        /* If we actually deleted any rows, notify that a change has occurred to this URI */
+        /* If we actually deleted any rows, notify the observers of the weather we deleted */
         if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            getContext().getContentResolver().notifyChange(getNotificationUri(uri, match), null);
         }
 
         return numRowsDeleted;
     }
 
+    /**
+     * Deletes locations, together with all of their weather, in a single transaction. Observers
+     * of the weather of every location are notified, as well as observers of the locations.
+     *
+     * @param selection     A restriction to apply to the locations to delete
+     * @param selectionArgs Used in conjunction with the selection statement
+     * @return The number of locations deleted
+     */
+    private int deleteLocations(String selection, String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        int numLocationsDeleted;
+        db.beginTransaction();
+        try {
+            db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " IN (SELECT "
+                            + WeatherContract.LocationEntry._ID + " FROM "
+                            + WeatherContract.LocationEntry.TABLE_NAME + " WHERE "
+                            + selection + ")",
+                    selectionArgs);
+            numLocationsDeleted = db.delete(WeatherContract.LocationEntry.TABLE_NAME,
+                    selection,
+                    selectionArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mForecastCache.invalidateAll();
+        }
+        mOpenHelper.checkpointIfDue(db);
+
+        if (numLocationsDeleted != 0) {
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.WeatherEntry.CONTENT_URI,
+                    null);
+        }
+
+        return numLocationsDeleted;
+    }
+
     /**
      * In Sunshine, we aren't going to do anything with this method. However, we are required to
      * override it as WeatherProvider extends ContentProvider and getType is an abstract method in
@@ -375,6 +1322,27 @@ public class WeatherProvider extends ContentProvider {
         throw new RuntimeException("We are not implementing update in Sunshine");
     }
 
+    /**
+     * Prints the state of the forecast cache and the size of the database, for
+     * <pre>
+     * adb shell dumpsys activity provider com.example.android.sunshine/.data.WeatherProvider
+     * </pre>
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        ForecastCache cache = mForecastCache;
+        writer.println("Forecast cache: hits=" + cache.getHitCount()
+                + " misses=" + cache.getMissCount()
+                + " bytes=" + cache.getBytesHeld()
+                + " evictions=" + cache.getEvictionCount());
+
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        writer.println("Database: locations="
+                + DatabaseUtils.queryNumEntries(db, WeatherContract.LocationEntry.TABLE_NAME)
+                + " weather="
+                + DatabaseUtils.queryNumEntries(db, WeatherContract.WeatherEntry.TABLE_NAME));
+    }
+
     /**
      * You do not need to call this method. This is a method specifically to assist the testing
      * framework in running smoothly. You can read more at:
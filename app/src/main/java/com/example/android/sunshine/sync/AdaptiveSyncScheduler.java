@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses how often the periodic sync runs, based on how much the forecast of the preferred
+ * location changed in the last sync. While the forecast stays the same, syncing every few hours
+ * only downloads what we already have, so the interval grows. When a sync finds a large part of
+ * the forecast changed, the weather is unsettled and the interval shrinks.
+ * <p>
+ * The interval is kept in {@link SunshinePreferences}, so it survives the process. Only the
+ * interval adapts: the job keeps the constraints {@link SunshineSyncUtils} schedules it with.
+ */
+public final class AdaptiveSyncScheduler {
+
+    private static final String TAG = AdaptiveSyncScheduler.class.getSimpleName();
+
+    /* The interval we start with, which is the interval Sunshine always used to sync at */
+    static final int DEFAULT_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(3);
+
+    static final int MIN_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(1);
+    static final int MAX_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(12);
+
+    /* A sync that changed at least this fraction of the forecast's days found it volatile */
+    private static final double VOLATILE_CHANGE_FRACTION = 0.5;
+
+    /* How much the interval grows after a sync that changed nothing */
+    private static final double GROWTH_FACTOR = 1.5;
+
+    /*
+     * How much the interval shrinks after a sync that found the forecast volatile. It shrinks
+     * faster than it grows, so that a long interval doesn't miss most of a change in weather.
+     */
+    private static final double SHRINK_FACTOR = 0.25;
+
+    /*
+     * Whether the sync adapts its interval. If not, it syncs at DEFAULT_INTERVAL_SECONDS, as
+     * Sunshine always did.
+     */
+    private static volatile boolean sAdaptiveSchedulingEnabled = true;
+
+    private AdaptiveSyncScheduler() {
+    }
+
+    /**
+     * Switches between the adaptive sync interval and the fixed interval Sunshine used to sync
+     * at.
+     *
+     * @param enabled true to adapt the interval to how much the forecast changes
+     */
+    public static void setAdaptiveSchedulingEnabled(boolean enabled) {
+        sAdaptiveSchedulingEnabled = enabled;
+    }
+
+    /**
+     * Computes the interval to sync at after a sync.
+     *
+     * @param currentIntervalSeconds The interval the sync ran at
+     * @param daysChanged            The number of days of the forecast the sync inserted or
+     *                               updated, 0 if the forecast didn't change at all
+     * @param daysInForecast         The number of days in the forecast
+     * @return The interval the next sync should run at, in seconds
+     */
+    static int nextIntervalSeconds(int currentIntervalSeconds, int daysChanged,
+                                   int daysInForecast) {
+        double nextInterval = currentIntervalSeconds;
+
+        if (daysChanged == 0) {
+            nextInterval *= GROWTH_FACTOR;
+        } else if (daysInForecast > 0
+                && (double) daysChanged / daysInForecast >= VOLATILE_CHANGE_FRACTION) {
+            nextInterval *= SHRINK_FACTOR;
+        }
+
+        return (int) Math.max(MIN_INTERVAL_SECONDS,
+                Math.min(MAX_INTERVAL_SECONDS, Math.round(nextInterval)));
+    }
+
+    /**
+     * @param context Used to access SunshinePreferences
+     * @return The interval the periodic sync should run at, in seconds
+     */
+    public static int getSyncIntervalSeconds(Context context) {
+        if (!sAdaptiveSchedulingEnabled) {
+            return DEFAULT_INTERVAL_SECONDS;
+        }
+        return SunshinePreferences.getSyncIntervalSeconds(context, DEFAULT_INTERVAL_SECONDS);
+    }
+
+    /**
+     * Adapts the sync interval to the result of a sync of the preferred location. The periodic
+     * job isn't rescheduled here, as this runs from within the job; see
+     * {@link SunshineSyncUtils#rescheduleIfIntervalChanged(Context)}.
+     *
+     * @param context        Used to access SunshinePreferences
+     * @param daysChanged    The number of days of the forecast the sync inserted or updated, 0
+     *                       if the forecast didn't change at all
+     * @param daysInForecast The number of days in the forecast
+     */
+    static void recordSyncResult(Context context, int daysChanged, int daysInForecast) {
+        if (!sAdaptiveSchedulingEnabled) {
+            return;
+        }
+
+        int intervalSeconds = getSyncIntervalSeconds(context);
+        int nextIntervalSeconds = nextIntervalSeconds(intervalSeconds, daysChanged,
+                daysInForecast);
+
+        if (nextIntervalSeconds != intervalSeconds) {
+            Log.v(TAG, daysChanged + " of " + daysInForecast + " days changed, syncing every "
+                    + nextIntervalSeconds + " s instead of every " + intervalSeconds + " s");
+            SunshinePreferences.setSyncIntervalSeconds(context, nextIntervalSeconds);
+        }
+    }
+}
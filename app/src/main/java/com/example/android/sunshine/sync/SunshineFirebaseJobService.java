@@ -16,17 +16,77 @@
 package com.example.android.sunshine.sync;
 
 import android.content.Context;
-import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.JobParameters;
 import com.firebase.jobdispatcher.JobService;
 import com.firebase.jobdispatcher.RetryStrategy;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
 
 public class SunshineFirebaseJobService extends JobService {
 
-    private AsyncTask<Void, Void, Void> mFetchWeatherTask;
+    private static final String TAG = SunshineFirebaseJobService.class.getSimpleName();
+
+    /*
+     * Runs the sync jobs, one at a time. Unlike AsyncTask's default executor, it is not shared
+     * with anything else in the process, so a sync never waits for unrelated work. A single
+     * thread is all the jobs can use: SunshineSyncCoordinator merges syncs that overlap into one
+     * run, so a second thread would only wait for the first. The thread goes away when there is
+     * nothing to sync.
+     */
+    private static final ThreadPoolExecutor sSyncExecutor = new ThreadPoolExecutor(
+            1,
+            1,
+            30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+
+    static {
+        sSyncExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /*
+     * How long the jobs waited in the executor's queue before they started, and how long they
+     * then ran for. A long wait means the jobs queue up behind a slow sync.
+     */
+    private static final AtomicLong sJobCount = new AtomicLong();
+    private static final AtomicLong sQueueWaitMillis = new AtomicLong();
+    private static final AtomicLong sExecutionMillis = new AtomicLong();
+
+    /* The jobs that have been started and not yet finished or stopped, by tag */
+    private final Map<String, SyncJob> mRunningJobs = new HashMap<>();
+
+    /**
+     * @return The number of sync jobs that ran to completion or were canceled while running
+     */
+    public static long getJobCount() {
+        return sJobCount.get();
+    }
+
+    /**
+     * @return The total time sync jobs spent waiting for a thread of the sync executor
+     */
+    public static long getQueueWaitMillis() {
+        return sQueueWaitMillis.get();
+    }
+
+    /**
+     * @return The total time sync jobs spent running
+     */
+    public static long getExecutionMillis() {
+        return sExecutionMillis.get();
+    }
 
     /**
      * The entry point to your Job. Implementations should offload work to another thread of
@@ -40,29 +100,19 @@ public class SunshineFirebaseJobService extends JobService {
      */
     @Override
     public boolean onStartJob(final JobParameters jobParameters) {
-
-        mFetchWeatherTask = new AsyncTask<Void, Void, Void>(){
-            @Override
-            protected Void doInBackground(Void... voids) {
-                Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
-                jobFinished(jobParameters, false);
-                return null;
-            }
-
-            @Override
-            protected void onPostExecute(Void aVoid) {
-                jobFinished(jobParameters, false);
-            }
-        };
-
-        mFetchWeatherTask.execute();
+        SyncJob syncJob = new SyncJob(jobParameters);
+        synchronized (mRunningJobs) {
+            mRunningJobs.put(jobParameters.getTag(), syncJob);
+        }
+        sSyncExecutor.execute(syncJob);
         return true;
     }
 
     /**
      * Called when the scheduling engine has decided to interrupt the execution of a running job,
      * most likely because the runtime constraints associated with the job are no longer satisfied.
+     * The sync is canceled: its downloads are aborted and the forecast it is writing is rolled
+     * back.
      *
      * @return whether the job should be retried
      * @see Job.Builder#setRetryStrategy(RetryStrategy)
@@ -70,9 +120,93 @@ public class SunshineFirebaseJobService extends JobService {
      */
     @Override
     public boolean onStopJob(JobParameters jobParameters) {
-        if (mFetchWeatherTask != null) {
-            mFetchWeatherTask.cancel(true);
+        SyncJob syncJob;
+        synchronized (mRunningJobs) {
+            syncJob = mRunningJobs.remove(jobParameters.getTag());
+        }
+        if (syncJob == null) {
+            /* The job already finished, so there is nothing left to retry */
+            return false;
+        }
+
+        /*
+         * The dispatcher considers the job done once this returns, so the job mustn't report
+         * itself finished afterwards. If it already has, it ran to completion.
+         */
+        boolean stoppedWhileRunning = syncJob.claimCompletion();
+        syncJob.mCancellationSignal.cancel();
+        return stoppedWhileRunning;
+    }
+
+    /**
+     * Prints the metrics of the sync, including the timing of its jobs, for
+     * <pre>
+     * adb shell dumpsys activity service com.example.android.sunshine/.sync.SunshineFirebaseJobService
+     * </pre>
+     * The service only runs while a job does, so that is when there is something to dump.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        SyncMetrics.dump(getApplicationContext(), writer);
+    }
+
+    /**
+     * A single run of the sync for the job dispatcher. The job is reported finished exactly once:
+     * either by itself when the sync ends, or by the dispatcher stopping it first.
+     */
+    private final class SyncJob implements Runnable {
+
+        private final JobParameters mJobParameters;
+        private final SyncCancellationSignal mCancellationSignal = new SyncCancellationSignal();
+        private final AtomicBoolean mCompleted = new AtomicBoolean();
+        private final long mEnqueueTime = SystemClock.elapsedRealtime();
+
+        SyncJob(JobParameters jobParameters) {
+            mJobParameters = jobParameters;
+        }
+
+        /**
+         * @return true if the caller is the one to complete the job, false if it already was
+         */
+        boolean claimCompletion() {
+            return mCompleted.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run() {
+            long startTime = SystemClock.elapsedRealtime();
+            try {
+                Context context = getApplicationContext();
+                SunshineSyncTask.syncWeather(context, mCancellationSignal);
+            } finally {
+                long endTime = SystemClock.elapsedRealtime();
+                recordTiming(startTime - mEnqueueTime, endTime - startTime);
+
+                synchronized (mRunningJobs) {
+                    if (mRunningJobs.get(mJobParameters.getTag()) == this) {
+                        mRunningJobs.remove(mJobParameters.getTag());
+                    }
+                }
+                if (claimCompletion()) {
+                    /*
+                     * If the server failed us for a reason that may go away, the dispatcher runs
+                     * the job again after its own backoff rather than at the next interval.
+                     */
+                    jobFinished(mJobParameters, !mCancellationSignal.isCanceled()
+                            && SunshineSyncTask.shouldRetrySoon());
+                }
+                SunshineSyncUtils.rescheduleIfIntervalChanged(getApplicationContext());
+            }
+        }
+
+        private void recordTiming(long queueWaitMillis, long executionMillis) {
+            sJobCount.incrementAndGet();
+            sQueueWaitMillis.addAndGet(queueWaitMillis);
+            sExecutionMillis.addAndGet(executionMillis);
+
+            Log.v(TAG, "Sync job " + mJobParameters.getTag()
+                    + (mCancellationSignal.isCanceled() ? " (canceled)" : "")
+                    + ": waited " + queueWaitMillis + " ms, ran " + executionMillis + " ms");
         }
-        return true;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Makes sure only one sync runs at a time, and that sync requests that pile up while it runs
+ * don't each fetch the weather again.
+ * <p>
+ * A request that arrives while no sync is running runs one right away, on the calling thread.
+ * A request that arrives while a sync is running can't simply share its result, as the sync may
+ * have read the settings before they changed. Instead it waits for a follow-up sync that starts
+ * once the running one is done. Every request that arrives in the meantime joins that same
+ * follow-up, so however many requests there are, at most one sync is waiting to run. The
+ * follow-up runs on the thread of one of the requests waiting for it.
+ */
+public final class SunshineSyncCoordinator {
+
+    private static final String TAG = SunshineSyncCoordinator.class.getSimpleName();
+
+    private static final Object sLock = new Object();
+
+    /* The sync that is running, or null */
+    private static SyncRun sRunningSync;
+
+    /* The sync that will run once the running one is done, or null */
+    private static SyncRun sPendingSync;
+
+    private static long sRequestCount;
+    private static long sSyncCount;
+    private static long sCoalescedRequestCount;
+
+    private SunshineSyncCoordinator() {
+    }
+
+    /**
+     * Asks for the weather to be synced, and waits until a sync that started after the request
+     * has ended. If the sync that served the request was canceled, although the request itself
+     * wasn't, the request asks for another one.
+     *
+     * @param context            Used to sync the weather
+     * @param cancellationSignal Cancels the request, and the sync if it runs on this thread
+     * @return true if a sync ran to completion for this request, false if the request was
+     * canceled
+     */
+    public static boolean requestSync(Context context, SyncCancellationSignal cancellationSignal) {
+        try {
+            cancellationSignal.attachThread();
+        } catch (CancellationException e) {
+            return false;
+        }
+
+        try {
+            while (true) {
+                Boolean completed = awaitOrRunSync(context, cancellationSignal, joinPendingSync());
+                if (completed == null || cancellationSignal.isCanceled()) {
+                    return false;
+                } else if (completed) {
+                    return true;
+                }
+                /* Somebody else's sync served us and was canceled, so ask for another one */
+            }
+        } finally {
+            cancellationSignal.detachThread();
+        }
+    }
+
+    /**
+     * @return The pending sync, which is created if there is none yet
+     */
+    private static SyncRun joinPendingSync() {
+        synchronized (sLock) {
+            sRequestCount++;
+            if (sPendingSync != null) {
+                sCoalescedRequestCount++;
+                Log.v(TAG, "Sync request joined the pending sync, "
+                        + sCoalescedRequestCount + " fetches saved so far");
+            } else {
+                sPendingSync = new SyncRun();
+            }
+            sPendingSync.mWaiterCount++;
+            return sPendingSync;
+        }
+    }
+
+    /**
+     * Waits for a sync to end, running it on the calling thread if it is its turn to run and
+     * nobody has started it yet.
+     *
+     * @return Whether the sync ran to completion, or null if the calling thread was canceled
+     * while waiting
+     */
+    private static Boolean awaitOrRunSync(Context context,
+                                          SyncCancellationSignal cancellationSignal,
+                                          SyncRun syncRun) {
+        synchronized (sLock) {
+            while (!syncRun.mDone) {
+                if (sRunningSync == null && sPendingSync == syncRun) {
+                    sRunningSync = syncRun;
+                    sPendingSync = null;
+                    break;
+                }
+                try {
+                    sLock.wait();
+                } catch (InterruptedException e) {
+                    /*
+                     * Canceling the request interrupts its thread. If nobody else is waiting for
+                     * the sync, there is no need to run it anymore.
+                     */
+                    if (--syncRun.mWaiterCount == 0 && sPendingSync == syncRun) {
+                        sPendingSync = null;
+                    }
+                    return null;
+                }
+            }
+            if (syncRun.mDone) {
+                return syncRun.mCompleted;
+            }
+        }
+
+        boolean completed = false;
+        try {
+            SunshineSyncTask.performSync(context, cancellationSignal);
+            completed = !cancellationSignal.isCanceled();
+        } finally {
+            synchronized (sLock) {
+                syncRun.mDone = true;
+                syncRun.mCompleted = completed;
+                sRunningSync = null;
+                sSyncCount++;
+                sLock.notifyAll();
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * @return The number of times a sync was requested
+     */
+    public static long getRequestCount() {
+        synchronized (sLock) {
+            return sRequestCount;
+        }
+    }
+
+    /**
+     * @return The number of syncs that actually ran
+     */
+    public static long getSyncCount() {
+        synchronized (sLock) {
+            return sSyncCount;
+        }
+    }
+
+    /**
+     * @return The number of requests that joined a sync somebody else had asked for, which is
+     * the number of fetches the coordinator saved
+     */
+    public static long getCoalescedRequestCount() {
+        synchronized (sLock) {
+            return sCoalescedRequestCount;
+        }
+    }
+
+    /* A single sync, which any number of requests may be waiting for */
+    private static final class SyncRun {
+        /* Guarded by sLock */
+        int mWaiterCount;
+        boolean mDone;
+        boolean mCompleted;
+    }
+}
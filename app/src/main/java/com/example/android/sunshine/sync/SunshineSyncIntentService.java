@@ -31,5 +31,6 @@ public class SunshineSyncIntentService extends IntentService {
     @Override
     protected void onHandleIntent(Intent intent) {
         SunshineSyncTask.syncWeather(this);
+        SunshineSyncUtils.rescheduleIfIntervalChanged(this);
     }
 }
\ No newline at end of file
@@ -17,110 +17,561 @@ package com.example.android.sunshine.sync;
 
 import com.google.android.gms.wearable.PutDataMapRequest;
 
+import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.Intent;
 import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
 import android.text.format.DateUtils;
 import android.util.Log;
 
 import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.data.ForecastBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.ResponseBuffer;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static android.R.attr.start;
 
 public class SunshineSyncTask{
 
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
+    /*
+     * Whether a sync should merge the new forecast into the stored one, writing only the days
+     * that changed, rather than deleting every row and inserting the whole forecast again.
+     */
+    private static volatile boolean sIncrementalSyncEnabled = true;
+
     /**
-     * Performs the network request for updated weather, parses the JSON from that request, and
-     * inserts the new weather information into our ContentProvider. Will notify the user that new
-     * weather has been loaded if the user hasn't been notified of the weather within the last day
-     * AND they haven't disabled notifications in the preferences screen.
+     * Switches between the incremental sync, which only writes the days that were inserted,
+     * changed or expired, and the original sync that replaces the whole table.
+     *
+     * @param enabled true to merge new forecasts into the table, false to replace it
+     */
+    public static void setIncrementalSyncEnabled(boolean enabled) {
+        sIncrementalSyncEnabled = enabled;
+    }
+
+    /*
+     * The most locations that are downloaded at the same time. Each of them holds a connection
+     * and a response buffer, so we don't want to open one for every location the user tracks.
+     * ResponseBuffer pools a buffer for each of them, so the two must change together.
+     */
+    private static final int MAX_CONCURRENT_LOCATION_SYNCS = 3;
+
+    /*
+     * Downloads the forecasts of the additional locations while the calling thread downloads the
+     * forecast of the preferred location. The threads go away when there is nothing to sync.
+     */
+    private static final ThreadPoolExecutor sLocationSyncExecutor = new ThreadPoolExecutor(
+            MAX_CONCURRENT_LOCATION_SYNCS,
+            MAX_CONCURRENT_LOCATION_SYNCS,
+            30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+
+    static {
+        sLocationSyncExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /* Retries downloads that failed for a transient reason */
+    private static final SyncRetryPolicy sRetryPolicy = new SyncRetryPolicy();
+
+    /* Stops downloading for a while when the server keeps failing, for every location at once */
+    private static final SyncCircuitBreaker sCircuitBreaker = new SyncCircuitBreaker();
+
+    /* The number of times a location failed to sync, by SyncFailure */
+    private static final AtomicLong[] sFailureCounts = new AtomicLong[SyncFailure.values().length];
+
+    static {
+        for (int i = 0; i < sFailureCounts.length; i++) {
+            sFailureCounts[i] = new AtomicLong();
+        }
+    }
+
+    /* Why the last sync of the preferred location failed, or null if it didn't */
+    private static volatile SyncFailure sPreferredLocationFailure;
+
+    /**
+     * Performs the network requests for updated weather of every location the user tracks,
+     * parses the JSON from those requests, and inserts the new weather information into our
+     * ContentProvider. The locations are downloaded concurrently, and each location's forecast is
+     * written in a transaction of its own, so a location that fails doesn't hold up the others.
+     * Will notify the user that new weather has been loaded if the weather of the preferred
+     * location changed, the user hasn't been notified of the weather within the last day AND
+     * they haven't disabled notifications in the preferences screen.
      *
      * @param context Used to access utility methods and the ContentResolver
      */
-    synchronized public static void syncWeather(Context context) {
+    public static void syncWeather(Context context) {
+        syncWeather(context, new SyncCancellationSignal());
+    }
+
+    /**
+     * Like {@link #syncWeather(Context)}, but the sync can be canceled through the given signal.
+     * Canceling aborts the downloads in progress and rolls back the forecasts being written;
+     * forecasts that were already written stay. A canceled sync neither notifies the user nor
+     * updates the wearable.
+     * <p>
+     * Requests that arrive while a sync is running are coalesced by
+     * {@link SunshineSyncCoordinator}, so this may wait for a sync on another thread rather than
+     * sync itself.
+     *
+     * @param context            Used to access utility methods and the ContentResolver
+     * @param cancellationSignal Signal to cancel the sync with
+     */
+    public static void syncWeather(Context context, SyncCancellationSignal cancellationSignal) {
+        SunshineSyncCoordinator.requestSync(context, cancellationSignal);
+    }
+
+    /**
+     * Performs the sync for {@link SunshineSyncCoordinator}, which makes sure only one thread
+     * runs it at a time.
+     *
+     * @param context            Used to access utility methods and the ContentResolver
+     * @param cancellationSignal Signal to cancel the sync with
+     */
+    static void performSync(final Context context,
+                            final SyncCancellationSignal cancellationSignal) {
 
         try {
+            cancellationSignal.attachThread();
+        } catch (CancellationException e) {
+            return;
+        }
+
+        long[] metricsSnapshot = SyncMetrics.snapshot();
+        long syncStart = SyncMetrics.startStage();
+        try {
+            syncAllLocations(context, cancellationSignal);
+        } finally {
+            SyncMetrics.endStage(SyncMetrics.Stage.SYNC, syncStart);
+            SyncMetrics.logSince(metricsSnapshot);
+        }
+    }
+
+    /**
+     * Syncs every location the user tracks, and lets the user and the wearable know if the
+     * weather of the preferred location changed.
+     *
+     * @param context            Used to access utility methods and the ContentResolver
+     * @param cancellationSignal Signal to cancel the sync with, attached to the calling thread
+     */
+    private static void syncAllLocations(final Context context,
+                                         final SyncCancellationSignal cancellationSignal) {
+        boolean preferredLocationSynced;
+        try {
+            String[] locations = SunshinePreferences.getWeatherLocations(context);
+            deleteUntrackedLocations(context, locations);
+
             /*
-             * The getUrl method will return the URL that we need to get the forecast JSON for the
-             * weather. It will decide whether to create a URL based off of the latitude and
-             * longitude or off of a simple location as a String.
+             * The preferred location comes first, and is synced on the calling thread. The
+             * others can only be parsed and written with APIs from Honeycomb on, so older
+             * devices only sync the preferred location.
              */
-            URL weatherRequestUrl = NetworkUtils.getUrl(context);
+            int locationCount = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                    ? locations.length
+                    : 1;
+            List<Future<Boolean>> additionalSyncs = new ArrayList<>(locationCount - 1);
+            for (int i = 1; i < locationCount; i++) {
+                final String locationSetting = locations[i];
+                additionalSyncs.add(sLocationSyncExecutor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        try {
+                            cancellationSignal.attachThread();
+                        } catch (CancellationException e) {
+                            return false;
+                        }
+                        try {
+                            return syncLocation(context, locationSetting, false,
+                                    cancellationSignal);
+                        } finally {
+                            cancellationSignal.detachThread();
+                        }
+                    }
+                }));
+            }
+
+            preferredLocationSynced =
+                    syncLocation(context, locations[0], true, cancellationSignal);
+
+            /* Don't return before every location has been written */
+            for (Future<Boolean> additionalSync : additionalSyncs) {
+                try {
+                    additionalSync.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Sync of an additional location failed", e.getCause());
+                }
+            }
+        } finally {
+            cancellationSignal.detachThread();
+        }
+
+        /* Everything the user sees is about the preferred location */
+        if (!preferredLocationSynced || cancellationSignal.isCanceled()) {
+            return;
+        }
+
+        /*
+         * Finally, after we insert data into the ContentProvider, determine whether or not
+         * we should notify the user that the weather has been refreshed.
+         */
+        long notifyStart = SyncMetrics.startStage();
+        boolean notificationsEnabled = SunshinePreferences.areNotificationsEnabled(context);
+
+        /*
+         * If the last notification was shown was more than 1 day ago, we want to send
+         * another notification to the user that the weather has been updated. Remember,
+         * it's important that you shouldn't spam your users with notifications.
+         */
+        long timeSinceLastNotification = SunshinePreferences
+                .getEllapsedTimeSinceLastNotification(context);
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+        boolean oneDayPassedSinceLastNotification = false;
 
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+        if (timeSinceLastNotification >= DateUtils.DAY_IN_MILLIS) {
+            oneDayPassedSinceLastNotification = true;
+        }
+
+        /*
+         * We only want to show the notification if the user wants them shown and we
+         * haven't shown a notification in the past day.
+         */
+        if (notificationsEnabled && oneDayPassedSinceLastNotification) {
+            NotificationUtils.notifyUserOfNewWeather(context);
+        }
+        SyncMetrics.endStage(SyncMetrics.Stage.NOTIFY, notifyStart);
+
+        /* If the code reaches this point, we have successfully performed our sync */
+        SunshineSyncWearableIntentService.startPush(context, false);
+    }
 
+    /**
+     * Deletes the locations the user no longer tracks, together with their weather, so that the
+     * weather of a location that was removed in the settings doesn't stay in the database.
+     *
+     * @param context   Used to access the ContentResolver
+     * @param locations The location settings of every tracked location
+     */
+    private static void deleteUntrackedLocations(Context context, String[] locations) {
+        StringBuilder selection = new StringBuilder(
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING).append(" NOT IN (");
+        for (int i = 0; i < locations.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+
+        int locationsDeleted = context.getContentResolver().delete(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                selection.toString(),
+                locations);
+        if (locationsDeleted > 0) {
             /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
+             * The validators of a removed location would otherwise make the sync skip its
+             * download, should it be added back while the server still has the same forecast.
              */
-            if (weatherValues != null && weatherValues.length != 0) {
-                /* Get a handle on the ContentResolver to delete and insert data */
-                ContentResolver sunshineContentResolver = context.getContentResolver();
-
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
-
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
+            SunshinePreferences.clearResponseValidators(context);
+        }
+    }
+
+    /**
+     * Downloads the forecast of a single location and writes it to our ContentProvider in one
+     * transaction. A download that fails for a transient reason is retried by
+     * {@link SyncRetryPolicy}, and none is made while {@link SyncCircuitBreaker} is open. Every
+     * failure is counted by its {@link SyncFailure}.
+     *
+     * @param context            Used to access utility methods and the ContentResolver
+     * @param locationSetting    The location to sync
+     * @param preferred          true if this is the user's preferred location
+     * @param cancellationSignal Signal that aborts the download and the write when canceled
+     * @return true if a new forecast was stored, false if it hadn't changed, the sync failed or
+     * it was canceled
+     */
+    private static boolean syncLocation(final Context context, String locationSetting,
+                                        boolean preferred,
+                                        final SyncCancellationSignal cancellationSignal) {
 
+        if (preferred) {
+            sPreferredLocationFailure = null;
+        }
+
+        /*
+         * The getUrl method will return the URL that we need to get the forecast JSON for the
+         * weather. It will decide whether to create a URL based off of the latitude and
+         * longitude or off of a simple location as a String.
+         */
+        final URL weatherRequestUrl = NetworkUtils.getUrl(context, locationSetting);
+        if (weatherRequestUrl == null) {
+            return false;
+        }
+
+        /* Don't add to the load of a server that keeps failing */
+        if (!sCircuitBreaker.allowRequest()) {
+            recordFailure(preferred, SyncFailure.CIRCUIT_OPEN, locationSetting, null);
+            return false;
+        }
+
+        /*
+         * Use the URL to retrieve the JSON. The response is kept as raw bytes in a pooled buffer,
+         * so we don't create a String (and its char array) for the whole body. The request is
+         * conditional on the validators of the last forecast we stored, and is retried if it
+         * fails for a reason that may go away.
+         */
+        ResponseBuffer weatherResponse;
+        long downloadStart = SyncMetrics.startStage();
+        try {
+            weatherResponse = sRetryPolicy.execute(new SyncRetryPolicy.Attempt<ResponseBuffer>() {
+                @Override
+                public ResponseBuffer run() throws IOException {
+                    return NetworkUtils.getConditionalResponseBufferFromHttpUrl(
+                            context, weatherRequestUrl, cancellationSignal);
+                }
+            }, cancellationSignal);
+        } catch (Exception e) {
+            /* A canceled sync fails on purpose, whatever the exception says */
+            if (cancellationSignal.isCanceled()) {
+                sCircuitBreaker.recordAbandoned();
+                return false;
+            }
+            SyncFailure failure = SyncFailure.fromDownload(e);
+            if (failure.isTransient()) {
+                sCircuitBreaker.recordFailure();
+            } else {
+                /* The server answered, even if it didn't like the request */
+                sCircuitBreaker.recordSuccess();
+            }
+            recordFailure(preferred, failure, locationSetting, e);
+            return false;
+        } finally {
+            SyncMetrics.endStage(SyncMetrics.Stage.DOWNLOAD, downloadStart);
+        }
+        sCircuitBreaker.recordSuccess();
+
+        if (weatherResponse == null) {
+            return false;
+        }
+        SyncMetrics.add(SyncMetrics.Counter.BYTES_DOWNLOADED, weatherResponse.length());
+
+        try {
+            /*
+             * If the forecast hasn't changed since we last stored it, there is nothing to parse,
+             * store or notify anyone about.
+             */
+            if (weatherResponse.isNotModified()) {
+                if (preferred) {
+                    AdaptiveSyncScheduler.recordSyncResult(context, 0, 0);
+                }
+                return false;
+            }
+
+            /* Don't bother parsing a forecast we aren't going to write */
+            cancellationSignal.throwIfCanceled();
+
+            /*
+             * The parsers date the forecast from today. Should the day change while parsing,
+             * recording the earlier day only costs a full download on the next sync.
+             */
+            long datedFrom = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+            /* Get a handle on the ContentResolver to write data */
+            ContentResolver sunshineContentResolver = context.getContentResolver();
+
+            /*
+             * Merge the forecast into what we have stored, so that only the days that changed
+             * are written and observers are only notified if something actually changed.
+             * Otherwise replace the old weather data with the new, because we don't need to keep
+             * multiple days' data. Either way, the write happens in one transaction.
+             */
+            String writeMode = sIncrementalSyncEnabled
+                    ? WeatherContract.WRITE_MODE_MERGE
+                    : WeatherContract.WRITE_MODE_REPLACE;
+
+            /*
+             * The DOM parser saves the coordinates of every forecast it parses as those of the
+             * preferred location, so other locations always use the streaming parser. They are
+             * only synced on the devices that have it.
+             */
+            if (OpenWeatherJsonUtils.isStreamingParserEnabled() || !preferred) {
                 /*
-                 * Finally, after we insert data into the ContentProvider, determine whether or not
-                 * we should notify the user that the weather has been refreshed.
+                 * Parse the JSON straight into primitive arrays and hand those to the provider,
+                 * without creating a set of ContentValues for every day.
                  */
-                boolean notificationsEnabled = SunshinePreferences.areNotificationsEnabled(context);
+                long parseStart = SyncMetrics.startStage();
+                ForecastBatch forecast = preferred
+                        ? OpenWeatherJsonUtils.getForecastBatchFromStream(
+                                context, weatherResponse.asInputStream())
+                        : OpenWeatherJsonUtils.getForecastBatchFromStream(
+                                weatherResponse.asInputStream());
+                SyncMetrics.endStage(SyncMetrics.Stage.PARSE, parseStart);
 
                 /*
-                 * If the last notification was shown was more than 1 day ago, we want to send
-                 * another notification to the user that the weather has been updated. Remember,
-                 * it's important that you shouldn't spam your users with notifications.
+                 * In cases where our JSON contained an error code, the parser would have
+                 * returned null. We also have no reason to insert fresh data if there isn't any
+                 * to insert.
                  */
-                long timeSinceLastNotification = SunshinePreferences
-                        .getEllapsedTimeSinceLastNotification(context);
-
-                boolean oneDayPassedSinceLastNotification = false;
-
-                if (timeSinceLastNotification >= DateUtils.DAY_IN_MILLIS) {
-                    oneDayPassedSinceLastNotification = true;
+                if (forecast == null || forecast.size() == 0) {
+                    return false;
                 }
+                SyncMetrics.add(SyncMetrics.Counter.ROWS_PARSED, forecast.size());
+
+                long writeStart = SyncMetrics.startStage();
+                int daysWritten = writeForecast(sunshineContentResolver, forecast,
+                        writeMode, locationSetting);
+                SyncMetrics.endStage(SyncMetrics.Stage.WRITE, writeStart);
+                SyncMetrics.add(SyncMetrics.Counter.ROWS_WRITTEN, daysWritten);
+                recordSyncResult(context, preferred, daysWritten, forecast.size());
+            } else {
+                /* Parse the JSON into a list of weather values */
+                long parseStart = SyncMetrics.startStage();
+                ContentValues[] weatherValues = OpenWeatherJsonUtils
+                        .getWeatherContentValuesFromJson(context,
+                                weatherResponse.toUtf8String());
+                SyncMetrics.endStage(SyncMetrics.Stage.PARSE, parseStart);
 
                 /*
-                 * We only want to show the notification if the user wants them shown and we
-                 * haven't shown a notification in the past day.
+                 * In cases where our JSON contained an error code,
+                 * getWeatherContentValuesFromJson would have returned null. We need to check for
+                 * those cases here to prevent any NullPointerExceptions being thrown. We also
+                 * have no reason to insert fresh data if there isn't any to insert.
                  */
-                if (notificationsEnabled && oneDayPassedSinceLastNotification) {
-                    NotificationUtils.notifyUserOfNewWeather(context);
+                if (weatherValues == null || weatherValues.length == 0) {
+                    return false;
                 }
+                SyncMetrics.add(SyncMetrics.Counter.ROWS_PARSED, weatherValues.length);
 
-            /* If the code reaches this point, we have successfully performed our sync */
-                Intent i = new Intent (context, SunshineSyncWearableIntentService.class);
-                context.startService(i);
+                Uri weatherUri = sIncrementalSyncEnabled
+                        ? WeatherContract.WeatherEntry.buildWeatherUriForMerge()
+                        : WeatherContract.WeatherEntry.buildWeatherUriForReplace();
+                long writeStart = SyncMetrics.startStage();
+                int daysWritten = sunshineContentResolver.bulkInsert(weatherUri,
+                        weatherValues);
+                SyncMetrics.endStage(SyncMetrics.Stage.WRITE, writeStart);
+                SyncMetrics.add(SyncMetrics.Counter.ROWS_WRITTEN, daysWritten);
+                recordSyncResult(context, preferred, daysWritten, weatherValues.length);
             }
 
+            /*
+             * Only now that the forecast is stored can the next request be made conditional on
+             * this response.
+             */
+            NetworkUtils.saveResponseValidators(context, weatherRequestUrl, weatherResponse,
+                    datedFrom);
+            return true;
+
         } catch (Exception e) {
-            /* Server probably invalid */
-            e.printStackTrace();
+            if (!cancellationSignal.isCanceled()) {
+                recordFailure(preferred, SyncFailure.fromProcessing(e), locationSetting, e);
+            }
+            return false;
+        } finally {
+            weatherResponse.recycle();
+        }
+    }
+
+    /**
+     * Counts a location that failed to sync, and logs why.
+     *
+     * @param preferred       true if the location is the user's preferred location
+     * @param failure         Why the location failed to sync
+     * @param locationSetting The location
+     * @param e               The exception the sync failed with, or null
+     */
+    private static void recordFailure(boolean preferred, SyncFailure failure,
+                                      String locationSetting, Exception e) {
+        sFailureCounts[failure.ordinal()].incrementAndGet();
+        if (preferred) {
+            sPreferredLocationFailure = failure;
+        }
+        Log.w(TAG, "Sync of " + locationSetting + " failed: " + failure, e);
+    }
+
+    /**
+     * @param failure A reason for a location to fail to sync
+     * @return The number of times a location failed to sync for that reason
+     */
+    public static long getFailureCount(SyncFailure failure) {
+        return sFailureCounts[failure.ordinal()].get();
+    }
+
+    /**
+     * @return The number of downloads that were retried after failing for a transient reason
+     */
+    public static long getRetryCount() {
+        return sRetryPolicy.getRetryCount();
+    }
+
+    /**
+     * @return true if the last sync of the preferred location failed for a reason that may go
+     * away soon, so the job should be run again before its next interval. Once the circuit
+     * breaker has opened, waiting for the next interval is the better choice.
+     */
+    static boolean shouldRetrySoon() {
+        SyncFailure failure = sPreferredLocationFailure;
+        return failure != null && failure.isTransient() && !sCircuitBreaker.isOpen();
+    }
+
+    /**
+     * Lets {@link AdaptiveSyncScheduler} know how much of the preferred location's forecast
+     * changed. Only a merge tells us that: a replace writes every day, changed or not.
+     *
+     * @param context        Used to access SunshinePreferences
+     * @param preferred      true if the forecast is the preferred location's
+     * @param daysWritten    The number of days the write inserted or updated
+     * @param daysInForecast The number of days in the forecast
+     */
+    private static void recordSyncResult(Context context, boolean preferred, int daysWritten,
+                                         int daysInForecast) {
+        if (preferred && sIncrementalSyncEnabled) {
+            AdaptiveSyncScheduler.recordSyncResult(context, daysWritten, daysInForecast);
         }
     }
 
+    /**
+     * Writes a forecast to Sunshine's ContentProvider with
+     * {@link WeatherContract#METHOD_WRITE_FORECAST}. Since the provider runs in our own process,
+     * the batch is handed over as it is, without being parceled.
+     *
+     * @param contentResolver The ContentResolver to call the provider through
+     * @param forecast        The forecast to write
+     * @param writeMode       One of the write modes in {@link WeatherContract}
+     * @param locationSetting The location the forecast is for
+     * @return The number of days that were written
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int writeForecast(ContentResolver contentResolver, ForecastBatch forecast,
+                                     String writeMode, String locationSetting) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.EXTRA_FORECAST_BATCH, forecast);
+        extras.putString(WeatherContract.EXTRA_LOCATION_SETTING, locationSetting);
+        Bundle result = contentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_WRITE_FORECAST,
+                writeMode,
+                extras);
+        return result != null ? result.getInt(WeatherContract.EXTRA_ROWS_WRITTEN) : 0;
+    }
+
 }
\ No newline at end of file
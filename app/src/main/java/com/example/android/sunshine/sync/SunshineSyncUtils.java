@@ -21,6 +21,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 
+import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.firebase.jobdispatcher.Constraint;
 import com.firebase.jobdispatcher.Driver;
@@ -28,19 +29,16 @@ import com.firebase.jobdispatcher.FirebaseJobDispatcher;
 import com.firebase.jobdispatcher.GooglePlayDriver;
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.Lifetime;
+import com.firebase.jobdispatcher.RetryStrategy;
 import com.firebase.jobdispatcher.Trigger;
 
-import java.util.concurrent.TimeUnit;
-
 public class SunshineSyncUtils {
 
     /*
-     * Interval at which to sync with the weather. Use TimeUnit for convenience, rather than
-     * writing out a bunch of multiplication ourselves and risk making a silly mistake.
+     * The interval at which to sync with the weather is chosen by AdaptiveSyncScheduler. The
+     * flex window is a third of the interval, whatever the interval is.
      */
-    private static final int SYNC_INTERVAL_HOURS = 3;
-    private static final int SYNC_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(SYNC_INTERVAL_HOURS);
-    private static final int SYNC_FLEXTIME_SECONDS = SYNC_INTERVAL_SECONDS / 3;
+    private static final int SYNC_FLEXTIME_DIVISOR = 3;
 
     private static boolean sInitialized;
 
@@ -53,6 +51,8 @@ public class SunshineSyncUtils {
      */
     static void scheduleFirebaseJobDispatcherSync(@NonNull final Context context) {
 
+        int syncIntervalSeconds = AdaptiveSyncScheduler.getSyncIntervalSeconds(context);
+
         Driver driver = new GooglePlayDriver(context);
         FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
 
@@ -79,25 +79,47 @@ public class SunshineSyncUtils {
                  */
                 .setRecurring(true)
                 /*
-                 * We want the weather data to be synced every 3 to 4 hours. The first argument for
-                 * Trigger's static executionWindow method is the start of the time frame when the
-                 * sync should be performed. The second argument is the latest point in time at
-                 * which the data should be synced. Please note that this end time is not
-                 * guaranteed, but is more of a guideline for FirebaseJobDispatcher to go off of.
+                 * We want the weather data to be synced every interval to interval and a third,
+                 * by default every 3 to 4 hours. The first argument for Trigger's static
+                 * executionWindow method is the start of the time frame when the sync should be
+                 * performed. The second argument is the latest point in time at which the data
+                 * should be synced. Please note that this end time is not guaranteed, but is
+                 * more of a guideline for FirebaseJobDispatcher to go off of.
                  */
                 .setTrigger(Trigger.executionWindow(
-                        SYNC_INTERVAL_SECONDS,
-                        SYNC_INTERVAL_SECONDS + SYNC_FLEXTIME_SECONDS))
+                        syncIntervalSeconds,
+                        syncIntervalSeconds + syncIntervalSeconds / SYNC_FLEXTIME_DIVISOR))
                 /*
                  * If a Job with the tag with provided already exists, this new job will replace
                  * the old one.
                  */
                 .setReplaceCurrent(true)
+                /*
+                 * A job that finishes asking to be rescheduled, because the server failed in a way
+                 * that may go away, runs again after an exponentially growing delay.
+                 */
+                .setRetryStrategy(RetryStrategy.DEFAULT_EXPONENTIAL)
                 /* Once the Job is ready, call the builder's build method to return the Job */
                 .build();
 
         /* Schedule the Job with the dispatcher */
         dispatcher.schedule(syncSunshineJob);
+        SunshinePreferences.setScheduledSyncIntervalSeconds(context, syncIntervalSeconds);
+    }
+
+    /**
+     * Schedules the periodic sync again if {@link AdaptiveSyncScheduler} changed the interval
+     * since it was last scheduled. Call this once a sync is over, rather than from within it,
+     * so that replacing the job can't interfere with the job that is running.
+     *
+     * @param context Context used to schedule the job
+     */
+    static void rescheduleIfIntervalChanged(@NonNull Context context) {
+        int scheduledIntervalSeconds = SunshinePreferences.getScheduledSyncIntervalSeconds(context);
+        if (scheduledIntervalSeconds != 0 && scheduledIntervalSeconds
+                != AdaptiveSyncScheduler.getSyncIntervalSeconds(context)) {
+            scheduleFirebaseJobDispatcherSync(context);
+        }
     }
     /**
      * Creates periodic sync tasks and checks to see if an immediate sync is required. If an
@@ -144,13 +166,15 @@ public class SunshineSyncUtils {
                 String[] projectionColumns = {WeatherContract.WeatherEntry._ID};
                 String selectionStatement = WeatherContract.WeatherEntry
                         .getSqlSelectForTodayOnwards();
+                String[] selectionArguments = WeatherContract.WeatherEntry
+                        .getSelectionArgsForTodayOnwards();
 
                 /* Here, we perform the query to check to see if we have any weather data */
                 Cursor cursor = context.getContentResolver().query(
                         forecastQueryUri,
                         projectionColumns,
                         selectionStatement,
-                        null,
+                        selectionArguments,
                         null);
                 /*
                  * A Cursor object can be null for various different reasons. A few are
@@ -167,6 +191,11 @@ public class SunshineSyncUtils {
                  * be able to display data to the user.
                  */
                 if (null == cursor || cursor.getCount() == 0) {
+                    /*
+                     * Whatever we last downloaded isn't in the database anymore, so the sync
+                     * must not be allowed to get away with a 304 Not Modified.
+                     */
+                    SunshinePreferences.clearResponseValidators(context);
                     startImmediateSync(context);
                 }
 
@@ -1,137 +1,181 @@
 package com.example.android.sunshine.sync;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.DataEvent;
-import com.google.android.gms.wearable.DataEventBuffer;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
 
 import android.app.IntentService;
-import android.app.PendingIntent;
-import android.content.Intent;
 import android.content.Context;
+import android.content.Intent;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.Bundle;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utilities.SunshineWeatherUtils;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
-import static android.webkit.ConsoleMessage.MessageLevel.LOG;
 import static com.example.android.sunshine.MainActivity.MAIN_FORECAST_PROJECTION;
 
 /**
- * An {@link IntentService} subclass for handling asynchronous task requests in a service on a
- * separate handler thread. <p> TODO: Customize class - update intent actions, extra parameters and
- * static helper methods.
+ * Pushes the weather of the coming days to the wearable after a sync, in the compact format of
+ * {@link WearableForecastPayload}. The push goes through the {@link WearableChannel} of the
+ * process, which stays connected between pushes, and happens synchronously on the service's
+ * worker thread.
  */
-public class SunshineSyncWearableIntentService extends IntentService implements DataApi.DataListener, GoogleApiClient.ConnectionCallbacks,
-        GoogleApiClient.OnConnectionFailedListener {
+public class SunshineSyncWearableIntentService extends IntentService {
 
     private static final String LOG_TAG = SunshineSyncWearableIntentService.class.getSimpleName();
 
-    GoogleApiClient mGoogleApiClient;
+    /* Whether to push the forecast even if the wearable already has the same one */
+    private static final String EXTRA_FORCE = "force";
+
+    /* Pushes that were delivered, and pushes that were skipped as the wearable had the payload */
+    private static final AtomicLong sDeliveredPushCount = new AtomicLong();
+    private static final AtomicLong sSuppressedPushCount = new AtomicLong();
 
     public SunshineSyncWearableIntentService() {
         super("SunshineSyncWearableIntentService");
     }
 
-    @Override
-    public void onCreate() {
-        super.onCreate();
+    /**
+     * Pushes the forecast to the wearable. Unless the push is forced, it is skipped if the
+     * wearables that are connected already received the same payload, so that their radios
+     * aren't woken up for nothing. A wearable that was just paired, reset or reinstalled has a
+     * node ID of its own, and gets the forecast on the next push.
+     *
+     * @param context Used to start the service
+     * @param force   true to push even if the payload is the same as the last one delivered
+     */
+    public static void startPush(Context context, boolean force) {
+        Intent intent = new Intent(context, SunshineSyncWearableIntentService.class);
+        intent.putExtra(EXTRA_FORCE, force);
+        context.startService(intent);
+    }
+
+    /**
+     * @return The number of pushes that were delivered to the wearable
+     */
+    public static long getDeliveredPushCount() {
+        return sDeliveredPushCount.get();
+    }
+
+    /**
+     * @return The number of pushes that were skipped, as the wearable already had the payload
+     */
+    public static long getSuppressedPushCount() {
+        return sSuppressedPushCount.get();
     }
 
     @Override
     protected void onHandleIntent(Intent intent) {
         if (intent != null) {
-            //final String action = intent.getAction();
-            mGoogleApiClient = new GoogleApiClient.Builder(this)
-                    .addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this)
-                    // Request access only to the Wearable API
-                    .addApi(Wearable.API)
-                    .build();
-            mGoogleApiClient.connect();
-            Log.v(LOG_TAG, "service started");
+            long pushStart = SyncMetrics.startStage();
+            boolean sent = sendWeatherData(intent.getBooleanExtra(EXTRA_FORCE, false));
+            SyncMetrics.endStage(SyncMetrics.Stage.WEARABLE, pushStart);
+            Log.v(LOG_TAG, sent ? "weather sent" : "weather not sent");
         }
     }
 
-    private static final String WEATHER_MIN_DATA_KEY = "weather.min";
-    private static final String WEATHER_MAX_DATA_KEY = "weather.max";
-    private static final String ICON_ID_DATA_KEY = "iconID";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String FORECAST_DATA_KEY = "forecast";
     private static final String WEATHER_DATA_PATH = "/weather";
 
+    /* Only used on the service's worker thread, one push at a time */
+    private final WearableForecastPayload mPayload = new WearableForecastPayload();
 
-    public void sendWeatherData(){
+    /**
+     * @param force true to push even if the payload is the same as the last one delivered
+     * @return true if the forecast was put for the wearable
+     */
+    public boolean sendWeatherData(boolean force){
 
         String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
+        String[] selectionArgs = WeatherContract.WeatherEntry.getSelectionArgsForTodayOnwards();
         String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
         Cursor c = getContentResolver().query(WeatherContract.WeatherEntry.CONTENT_URI,
                 MAIN_FORECAST_PROJECTION,
                 selection,
-                null,
+                selectionArgs,
                 sortOrder);
 
-        c.moveToFirst();
-        double highInCelsius = c.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
-        String highString = SunshineWeatherUtils.formatTemperature(this, highInCelsius);
+        if (c == null) {
+            return false;
+        }
 
-        double lowInCelsius = c.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
-        String lowString = SunshineWeatherUtils.formatTemperature(this, lowInCelsius);
+        boolean metric = SunshinePreferences.isMetric(this);
+        try {
+            if (!c.moveToFirst()) {
+                return false;
+            }
+
+            mPayload.reset(c.getLong(MainActivity.INDEX_WEATHER_DATE)
+                    / SunshineDateUtils.DAY_IN_MILLIS, !metric);
+            do {
+                double high = c.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
+                double low = c.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
+                if (!metric) {
+                    high = SunshineWeatherUtils.celsiusToFahrenheit(high);
+                    low = SunshineWeatherUtils.celsiusToFahrenheit(low);
+                }
+                if (!mPayload.addDay(c.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID),
+                        high, low)) {
+                    break;
+                }
+            } while (c.moveToNext());
+        } finally {
+            c.close();
+        }
 
+        WearableChannel channel = WearableChannel.getInstance(this);
+        byte[] payload = mPayload.toByteArray();
 
-        int weatherId = c.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
+        /* Without the connected nodes, there is no telling whether they have the payload */
+        String[] nodeIds = channel.getConnectedNodeIds();
+        long payloadHash = nodeIds != null ? hash(payload, nodeIds) : -1;
+        if (!force && payloadHash >= 0
+                && payloadHash == SunshinePreferences.getWearablePayloadHash(this)) {
+            sSuppressedPushCount.incrementAndGet();
+            return false;
+        }
 
         PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEATHER_DATA_PATH);
-        putDataMapRequest.getDataMap().putString(WEATHER_MAX_DATA_KEY, highString);
-        putDataMapRequest.getDataMap().putString(WEATHER_MIN_DATA_KEY, lowString);
-        //putDataMapRequest.getDataMap().putLong("time_stamp", System.currentTimeMillis());
-        putDataMapRequest.getDataMap().putInt(ICON_ID_DATA_KEY, weatherId);
+        putDataMapRequest.getDataMap().putByteArray(FORECAST_DATA_KEY, payload);
 
         PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest();
-        Wearable.DataApi.putDataItem(mGoogleApiClient, putDataRequest)
-                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                    @Override
-                    public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
-                        if(!dataItemResult.getStatus().isSuccess()){
-                        }else{
-                        }
-                    }
-                });
-    }
-
-    @Override
-    public void onConnected(@Nullable Bundle bundle) {
-        sendWeatherData();
-    }
-
-    @Override
-    public void onConnectionSuspended(int i) {
-    }
+        SyncMetrics.add(SyncMetrics.Counter.WEARABLE_BYTES, putDataRequest.getData().length);
+        if (!channel.putDataItem(putDataRequest)) {
+            return false;
+        }
 
-    @Override
-    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
+        /* Only a payload that was delivered may suppress the next push */
+        if (payloadHash >= 0) {
+            SunshinePreferences.setWearablePayloadHash(this, payloadHash);
+        }
+        sDeliveredPushCount.incrementAndGet();
+        return true;
     }
 
-    @Override
-    public void onDataChanged(DataEventBuffer dataEventBuffer) {
+    /**
+     * @param payload A payload for the wearable
+     * @param nodeIds The IDs of the nodes it is pushed to, sorted
+     * @return The CRC-32 of both, which is never negative
+     */
+    private static long hash(byte[] payload, String[] nodeIds) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        for (String nodeId : nodeIds) {
+            /* Separate the IDs, so that "ab" and "c" don't hash like "a" and "bc" */
+            crc.update(0);
+            byte[] bytes = nodeId.getBytes(UTF_8);
+            crc.update(bytes, 0, bytes.length);
+        }
+        return crc.getValue();
     }
-
-
 }
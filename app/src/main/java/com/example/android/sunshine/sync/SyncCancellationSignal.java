@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lets a sync be canceled while it is running, for instance when the job dispatcher stops the
+ * job. Canceling doesn't just set a flag that the sync checks between its steps:
+ * <ul>
+ * <li>every HttpURLConnection the sync attached is disconnected, which makes a download that is
+ * blocked reading from the network fail right away, and</li>
+ * <li>every thread the sync attached is interrupted. WeatherProvider checks for interrupts while
+ * it writes a forecast, and rolls the transaction back if it finds one.</li>
+ * </ul>
+ */
+public final class SyncCancellationSignal {
+
+    private final List<HttpURLConnection> mConnections = new ArrayList<>();
+    private final List<Thread> mThreads = new ArrayList<>();
+
+    private boolean mCanceled;
+
+    /**
+     * Cancels the sync. Does nothing if it was already canceled.
+     */
+    public void cancel() {
+        List<HttpURLConnection> connections;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+
+            /* Interrupt while holding the lock, so that no thread can detach in between */
+            for (Thread thread : mThreads) {
+                thread.interrupt();
+            }
+            connections = new ArrayList<>(mConnections);
+        }
+
+        /* Closing the socket may take a moment, so it is done outside of the lock */
+        for (HttpURLConnection connection : connections) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return true if the sync was canceled
+     */
+    public synchronized boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * @throws CancellationException If the sync was canceled
+     */
+    public void throwIfCanceled() {
+        if (isCanceled()) {
+            throw new CancellationException("The sync was canceled");
+        }
+    }
+
+    /**
+     * Makes canceling interrupt the calling thread, until it calls {@link #detachThread()}.
+     *
+     * @throws CancellationException If the sync was already canceled
+     */
+    public synchronized void attachThread() {
+        throwIfCanceled();
+        mThreads.add(Thread.currentThread());
+    }
+
+    /**
+     * Stops canceling from interrupting the calling thread, and clears an interrupt that
+     * canceling may have caused, so that the thread can safely go back to a pool.
+     */
+    public synchronized void detachThread() {
+        mThreads.remove(Thread.currentThread());
+        if (mCanceled) {
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Makes canceling disconnect a connection, until it is detached again.
+     *
+     * @param connection The connection the sync is downloading from
+     * @throws CancellationException If the sync was already canceled
+     */
+    public synchronized void attachConnection(HttpURLConnection connection) {
+        throwIfCanceled();
+        mConnections.add(connection);
+    }
+
+    /**
+     * @param connection A connection passed to {@link #attachConnection(HttpURLConnection)}
+     */
+    public synchronized void detachConnection(HttpURLConnection connection) {
+        mConnections.remove(connection);
+    }
+}
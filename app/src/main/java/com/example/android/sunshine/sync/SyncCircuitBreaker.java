@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops the sync from downloading anything while the weather server seems to be down. Every
+ * sync that fails for a transient reason counts as a failure; once there have been enough of
+ * them in a row, the breaker opens and downloads are skipped until a cool-down has passed.
+ * Otherwise, every tap on refresh would send another round of retries to a server that can't
+ * answer them.
+ * <p>
+ * Once the cool-down has passed, the breaker lets a single trial download through, and keeps
+ * skipping the others until the trial has ended: if it succeeds, the breaker closes, and if it
+ * fails, the cool-down starts over. That way a server that is still down gets one request
+ * rather than one from every location at once.
+ */
+public final class SyncCircuitBreaker {
+
+    private static final String TAG = SyncCircuitBreaker.class.getSimpleName();
+
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    static final long DEFAULT_COOL_DOWN_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private final int mFailureThreshold;
+    private final long mCoolDownMillis;
+
+    private int mConsecutiveFailures;
+    private boolean mOpen;
+    private long mOpenedAt;
+    private long mOpenCount;
+
+    /* When the trial download after the cool-down started, or -1 if there is none going on */
+    private long mTrialStartedAt = -1;
+
+    /**
+     * Creates a breaker with the threshold and cool-down the sync uses.
+     */
+    public SyncCircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_COOL_DOWN_MILLIS);
+    }
+
+    /**
+     * @param failureThreshold The number of failures in a row that open the breaker
+     * @param coolDownMillis   How long the breaker stays open before it lets a download through
+     */
+    public SyncCircuitBreaker(int failureThreshold, long coolDownMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("The threshold must be at least 1");
+        }
+        mFailureThreshold = failureThreshold;
+        mCoolDownMillis = coolDownMillis;
+    }
+
+    /**
+     * Every download that is allowed while the breaker is open is its trial, and must end with
+     * {@link #recordSuccess()}, {@link #recordFailure()} or {@link #recordAbandoned()}. A trial
+     * that never ends is given up on after another cool-down.
+     *
+     * @return true if a download may be made, false if it should be skipped
+     */
+    public synchronized boolean allowRequest() {
+        if (!mOpen) {
+            return true;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (now - mOpenedAt < mCoolDownMillis
+                || (mTrialStartedAt >= 0 && now - mTrialStartedAt < mCoolDownMillis)) {
+            return false;
+        }
+        mTrialStartedAt = now;
+        return true;
+    }
+
+    /**
+     * Records that the server answered, which closes the breaker.
+     */
+    public synchronized void recordSuccess() {
+        if (mOpen) {
+            Log.i(TAG, "The server answered again, closing the circuit");
+        }
+        mConsecutiveFailures = 0;
+        mOpen = false;
+        mTrialStartedAt = -1;
+    }
+
+    /**
+     * Records that an allowed download was not made, or was canceled before the server
+     * answered. It tells nothing about the server, so if it was the trial, the next download
+     * becomes the trial instead.
+     */
+    public synchronized void recordAbandoned() {
+        mTrialStartedAt = -1;
+    }
+
+    /**
+     * Records that a download failed for a transient reason, which opens the breaker if that
+     * was one failure too many, or starts the cool-down over if it was already open.
+     */
+    public synchronized void recordFailure() {
+        mConsecutiveFailures++;
+        if (mOpen || mConsecutiveFailures >= mFailureThreshold) {
+            if (!mOpen) {
+                mOpenCount++;
+                Log.w(TAG, mConsecutiveFailures + " failures in a row, not syncing for "
+                        + mCoolDownMillis + " ms");
+            }
+            mOpen = true;
+            mOpenedAt = SystemClock.elapsedRealtime();
+            mTrialStartedAt = -1;
+        }
+    }
+
+    /**
+     * @return true if the breaker is open, even if its cool-down has passed
+     */
+    public synchronized boolean isOpen() {
+        return mOpen;
+    }
+
+    /**
+     * @return The number of times the breaker opened
+     */
+    public synchronized long getOpenCount() {
+        return mOpenCount;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.database.SQLException;
+
+import com.example.android.sunshine.utilities.HttpStatusException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+
+/**
+ * The reasons a location can fail to sync. Only some of them are worth retrying soon: a server
+ * that is overloaded or a network that dropped may well work a few seconds later, while a
+ * location the server doesn't know or a forecast we can't parse will fail the same way again.
+ */
+public enum SyncFailure {
+
+    /* The request never got an answer: no connection, a timeout, or a reset */
+    NETWORK(true),
+
+    /* The server answered with 5xx, or asked us to slow down with 429 */
+    SERVER_ERROR(true),
+
+    /* The server answered with any other 4xx, for instance for a location it doesn't know */
+    CLIENT_ERROR(false),
+
+    /* The response wasn't a forecast we could read */
+    PARSE_ERROR(false),
+
+    /* The forecast couldn't be written to the database */
+    STORAGE_ERROR(false),
+
+    /* The download was skipped, because SyncCircuitBreaker is open */
+    CIRCUIT_OPEN(false),
+
+    /* Anything else */
+    UNKNOWN(false);
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final boolean mTransient;
+
+    SyncFailure(boolean isTransient) {
+        mTransient = isTransient;
+    }
+
+    /**
+     * @return true if the same request may well succeed if it is made again a little later
+     */
+    public boolean isTransient() {
+        return mTransient;
+    }
+
+    /**
+     * Classifies an exception thrown while downloading a forecast.
+     *
+     * @param e The exception
+     * @return Why the download failed
+     */
+    static SyncFailure fromDownload(Exception e) {
+        if (e instanceof HttpStatusException) {
+            int statusCode = ((HttpStatusException) e).getStatusCode();
+            return statusCode >= 500 || statusCode == HTTP_TOO_MANY_REQUESTS
+                    ? SERVER_ERROR
+                    : CLIENT_ERROR;
+        } else if (e instanceof IOException) {
+            return NETWORK;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Classifies an exception thrown while parsing or writing a forecast that was downloaded.
+     * The response is in memory by then, so an IOException can only come from the parser.
+     *
+     * @param e The exception
+     * @return Why the forecast couldn't be stored
+     */
+    static SyncFailure fromProcessing(Exception e) {
+        if (e instanceof IOException || e instanceof JSONException
+                || e instanceof IllegalStateException || e instanceof NumberFormatException) {
+            return PARSE_ERROR;
+        } else if (e instanceof SQLException) {
+            return STORAGE_ERROR;
+        }
+        return UNKNOWN;
+    }
+}
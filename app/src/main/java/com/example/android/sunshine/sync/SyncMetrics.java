@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records where the time of a sync goes: how long each stage of it takes, and how much data
+ * goes through it. The totals since the process started can be dumped while a sync job runs with
+ * <pre>
+ * adb shell dumpsys activity service com.example.android.sunshine/.sync.SunshineFirebaseJobService
+ * </pre>
+ * and every sync logs a single line with its own numbers under the "SyncMetrics" tag.
+ * <p>
+ * Recording only adds to a few atomic counters. When it is disabled, every method returns right
+ * away, without reading the clock.
+ */
+public final class SyncMetrics {
+
+    private static final String TAG = "SyncMetrics";
+
+    /** The stages of a sync. Stages of different locations may overlap, as may their times. */
+    public enum Stage {
+        /* The whole sync, from the first download to the notification */
+        SYNC,
+        /* Downloading a forecast, including its retries */
+        DOWNLOAD,
+        /* Parsing a forecast */
+        PARSE,
+        /* Writing a forecast to WeatherProvider, in one transaction */
+        WRITE,
+        /* Deciding whether to notify the user, and doing so */
+        NOTIFY,
+        /* Pushing the weather to the wearable, including connecting to Play Services */
+        WEARABLE
+    }
+
+    /** The amounts of data that go through a sync. */
+    public enum Counter {
+        /* The size of the forecasts that were downloaded, once decompressed */
+        BYTES_DOWNLOADED,
+        /* The days of weather that were parsed */
+        ROWS_PARSED,
+        /* The days of weather that were inserted or updated */
+        ROWS_WRITTEN,
+        /* The size of the data items put for the wearable, each of which wakes its radio */
+        WEARABLE_BYTES
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final Counter[] COUNTERS = Counter.values();
+
+    private static volatile boolean sEnabled = true;
+
+    /* By stage: how often it ran, for how long in total and for how long at most */
+    private static final AtomicLong[] sStageCounts = newCounters(STAGES.length);
+    private static final AtomicLong[] sStageNanos = newCounters(STAGES.length);
+    private static final AtomicLong[] sStageMaxNanos = newCounters(STAGES.length);
+
+    private static final AtomicLong[] sCounters = newCounters(COUNTERS.length);
+
+    private SyncMetrics() {
+    }
+
+    private static AtomicLong[] newCounters(int count) {
+        AtomicLong[] counters = new AtomicLong[count];
+        for (int i = 0; i < count; i++) {
+            counters[i] = new AtomicLong();
+        }
+        return counters;
+    }
+
+    /**
+     * Switches recording on or off. The numbers recorded so far are kept.
+     *
+     * @param enabled true to record the stages of the sync
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * @return The time to pass to {@link #endStage(Stage, long)} once the stage is over, or 0
+     * if recording is disabled
+     */
+    public static long startStage() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records that a stage ended.
+     *
+     * @param stage      The stage
+     * @param startNanos What {@link #startStage()} returned when the stage started
+     */
+    public static void endStage(Stage stage, long startNanos) {
+        if (!sEnabled || startNanos == 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        int index = stage.ordinal();
+        sStageCounts[index].incrementAndGet();
+        sStageNanos[index].addAndGet(nanos);
+
+        AtomicLong maxNanos = sStageMaxNanos[index];
+        long max;
+        do {
+            max = maxNanos.get();
+        } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+    }
+
+    /**
+     * @param counter The counter to add to
+     * @param amount  The amount to add
+     */
+    public static void add(Counter counter, long amount) {
+        if (sEnabled) {
+            sCounters[counter.ordinal()].addAndGet(amount);
+        }
+    }
+
+    /**
+     * @param stage A stage of the sync
+     * @return The number of times the stage ran
+     */
+    public static long getStageCount(Stage stage) {
+        return sStageCounts[stage.ordinal()].get();
+    }
+
+    /**
+     * @param stage A stage of the sync
+     * @return The total time the stage took, in nanoseconds
+     */
+    public static long getStageNanos(Stage stage) {
+        return sStageNanos[stage.ordinal()].get();
+    }
+
+    /**
+     * @param counter An amount of data
+     * @return The total amount
+     */
+    public static long getCount(Counter counter) {
+        return sCounters[counter.ordinal()].get();
+    }
+
+    /**
+     * Takes a snapshot of the numbers, to log what a sync added to them once it is done with
+     * {@link #logSince(long[])}. Since only one sync runs at a time, that is what the sync did.
+     *
+     * @return The snapshot, or null if recording is disabled
+     */
+    static long[] snapshot() {
+        if (!sEnabled) {
+            return null;
+        }
+        long[] snapshot = new long[STAGES.length * 2 + COUNTERS.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            snapshot[i * 2] = sStageCounts[i].get();
+            snapshot[i * 2 + 1] = sStageNanos[i].get();
+        }
+        for (int i = 0; i < COUNTERS.length; i++) {
+            snapshot[STAGES.length * 2 + i] = sCounters[i].get();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Logs what was recorded since a snapshot, on a single line such as
+     * <pre>
+     * SYNC 1x812ms DOWNLOAD 3x640ms PARSE 3x41ms WRITE 3x92ms NOTIFY 1x3ms
+     * BYTES_DOWNLOADED=17920 ROWS_PARSED=42 ROWS_WRITTEN=14
+     * </pre>
+     * Stages that didn't run are left out.
+     *
+     * @param snapshot What {@link #snapshot()} returned, or null to do nothing
+     */
+    static void logSince(long[] snapshot) {
+        if (snapshot == null || !Log.isLoggable(TAG, Log.INFO)) {
+            return;
+        }
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < STAGES.length; i++) {
+            long count = sStageCounts[i].get() - snapshot[i * 2];
+            if (count > 0) {
+                long nanos = sStageNanos[i].get() - snapshot[i * 2 + 1];
+                line.append(STAGES[i]).append(' ').append(count).append('x')
+                        .append(TimeUnit.NANOSECONDS.toMillis(nanos)).append("ms ");
+            }
+        }
+        for (int i = 0; i < COUNTERS.length; i++) {
+            line.append(COUNTERS[i]).append('=')
+                    .append(sCounters[i].get() - snapshot[STAGES.length * 2 + i]).append(' ');
+        }
+        Log.i(TAG, line.toString().trim());
+    }
+
+    /**
+     * Prints everything recorded since the process started, for dumpsys, along with the
+     * counters the other parts of the sync keep and the interval it is scheduled at.
+     *
+     * @param context Used to access SunshinePreferences
+     * @param writer  The writer to print to
+     */
+    public static void dump(Context context, PrintWriter writer) {
+        writer.println("Sync metrics" + (sEnabled ? ":" : " (disabled):"));
+        for (int i = 0; i < STAGES.length; i++) {
+            long count = sStageCounts[i].get();
+            long totalMillis = TimeUnit.NANOSECONDS.toMillis(sStageNanos[i].get());
+            writer.println("  " + STAGES[i] + ": count=" + count
+                    + " total=" + totalMillis + "ms"
+                    + " avg=" + (count > 0 ? totalMillis / count : 0) + "ms"
+                    + " max=" + TimeUnit.NANOSECONDS.toMillis(sStageMaxNanos[i].get()) + "ms");
+        }
+        for (int i = 0; i < COUNTERS.length; i++) {
+            writer.println("  " + COUNTERS[i] + ": " + sCounters[i].get());
+        }
+        writer.println("  Conditional requests: hits=" + NetworkUtils.getConditionalHitCount()
+                + " misses=" + NetworkUtils.getConditionalMissCount()
+                + " bytesSaved=" + NetworkUtils.getConditionalBytesSaved());
+        writer.println("  Sync requests: requested=" + SunshineSyncCoordinator.getRequestCount()
+                + " synced=" + SunshineSyncCoordinator.getSyncCount()
+                + " coalesced=" + SunshineSyncCoordinator.getCoalescedRequestCount());
+        long jobCount = SunshineFirebaseJobService.getJobCount();
+        long queueWaitMillis = SunshineFirebaseJobService.getQueueWaitMillis();
+        long executionMillis = SunshineFirebaseJobService.getExecutionMillis();
+        writer.println("  Sync jobs: count=" + jobCount
+                + " queueWait=" + queueWaitMillis + "ms"
+                + " avgQueueWait=" + (jobCount > 0 ? queueWaitMillis / jobCount : 0) + "ms"
+                + " execution=" + executionMillis + "ms"
+                + " avgExecution=" + (jobCount > 0 ? executionMillis / jobCount : 0) + "ms");
+        writer.println("  Sync interval: adaptive="
+                + AdaptiveSyncScheduler.getSyncIntervalSeconds(context) + "s"
+                + " scheduled=" + SunshinePreferences.getScheduledSyncIntervalSeconds(context)
+                + "s");
+        long sendCount = WearableChannel.getSendCount();
+        writer.println("  Wearable: connects=" + WearableChannel.getConnectCount()
+                + " connectFailures=" + WearableChannel.getConnectFailureCount()
+                + " reuses=" + WearableChannel.getReuseCount()
+                + " sends=" + sendCount
+                + " sendFailures=" + WearableChannel.getSendFailureCount()
+                + " avgSend=" + (sendCount > 0
+                        ? TimeUnit.NANOSECONDS.toMillis(WearableChannel.getSendNanos()) / sendCount
+                        : 0) + "ms");
+        writer.println("  Wearable pushes: delivered="
+                + SunshineSyncWearableIntentService.getDeliveredPushCount()
+                + " suppressed=" + SunshineSyncWearableIntentService.getSuppressedPushCount());
+        writer.println("  Retries: " + SunshineSyncTask.getRetryCount());
+        for (SyncFailure failure : SyncFailure.values()) {
+            writer.println("  Failures " + failure + ": "
+                    + SunshineSyncTask.getFailureCount(failure));
+        }
+    }
+}
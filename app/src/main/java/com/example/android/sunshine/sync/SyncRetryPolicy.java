@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries a download that failed for a reason that is likely to go away, see
+ * {@link SyncFailure#isTransient()}, with exponential backoff. The delay doubles with every
+ * retry, up to a maximum, and half of it is random. Without the randomness every device that
+ * saw the server fail at the same moment would retry at the same moment too, and fail again.
+ * <p>
+ * The retries happen within the sync, on its thread, so canceling the sync also cancels a retry
+ * that is waiting for its turn.
+ */
+public final class SyncRetryPolicy {
+
+    private static final String TAG = SyncRetryPolicy.class.getSimpleName();
+
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+    static final long DEFAULT_BASE_DELAY_MILLIS = 2000;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 30000;
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+
+    private final Random mRandom = new Random();
+
+    private final AtomicLong mRetryCount = new AtomicLong();
+
+    /**
+     * A single attempt at the work the policy retries.
+     *
+     * @param <T> The result of the work
+     */
+    public interface Attempt<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Creates a policy with the delays the sync uses.
+     */
+    public SyncRetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param maxAttempts     How many times the work is tried at most, including the first try
+     * @param baseDelayMillis The delay before the first retry, before the jitter is applied
+     * @param maxDelayMillis  The longest the policy ever waits before a retry
+     */
+    public SyncRetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("At least one attempt is needed");
+        }
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Runs the work, and runs it again after a delay for as long as it fails for a transient
+     * reason and attempts are left.
+     *
+     * @param attempt            The work to run
+     * @param cancellationSignal The signal of the sync the work is part of
+     * @param <T>                The result of the work
+     * @return The result of the first attempt that succeeded
+     * @throws IOException           The failure of the last attempt, or of the first one that
+     *                               isn't worth retrying
+     * @throws CancellationException If the sync was canceled
+     */
+    public <T> T execute(Attempt<T> attempt, SyncCancellationSignal cancellationSignal)
+            throws IOException {
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            cancellationSignal.throwIfCanceled();
+            try {
+                return attempt.run();
+            } catch (IOException e) {
+                /* Canceling disconnects the download, which isn't a failure worth retrying */
+                if (cancellationSignal.isCanceled()
+                        || attemptNumber >= mMaxAttempts
+                        || !SyncFailure.fromDownload(e).isTransient()) {
+                    throw e;
+                }
+
+                long delayMillis = getBackoffMillis(attemptNumber);
+                Log.v(TAG, "Attempt " + attemptNumber + " failed (" + e.getMessage()
+                        + "), retrying in " + delayMillis + " ms");
+                mRetryCount.incrementAndGet();
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException interrupted) {
+                    /* Canceling the sync interrupts its threads */
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("The sync was canceled");
+                }
+            }
+        }
+    }
+
+    /**
+     * @param retryNumber 1 for the first retry, 2 for the second, and so on
+     * @return How long to wait before the retry, between half of the exponential delay and all
+     * of it
+     */
+    long getBackoffMillis(int retryNumber) {
+        long delayMillis = mBaseDelayMillis << Math.min(retryNumber - 1, 30);
+        if (delayMillis <= 0 || delayMillis > mMaxDelayMillis) {
+            delayMillis = mMaxDelayMillis;
+        }
+        long halfDelayMillis = delayMillis / 2;
+        synchronized (mRandom) {
+            return halfDelayMillis + (long) (mRandom.nextDouble() * (delayMillis - halfDelayMillis));
+        }
+    }
+
+    /**
+     * @return The number of retries the policy made
+     */
+    public long getRetryCount() {
+        return mRetryCount.get();
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The connection to the Wearable API that every push to the watch goes through. Connecting to
+ * Play Services means binding to it and waiting for it to answer, so rather than connecting for
+ * every push, the client is connected the first time it is needed and then kept for the life of
+ * the process.
+ * <p>
+ * Everything here blocks, so it must be used from a worker thread, never from the main thread.
+ */
+final class WearableChannel {
+
+    private static final String TAG = WearableChannel.class.getSimpleName();
+
+    private static final long CONNECT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long SEND_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private static WearableChannel sInstance;
+
+    /* How the channel was used: new connections, pushes that reused one, and the pushes */
+    private static final AtomicLong sConnectCount = new AtomicLong();
+    private static final AtomicLong sConnectFailureCount = new AtomicLong();
+    private static final AtomicLong sReuseCount = new AtomicLong();
+    private static final AtomicLong sSendCount = new AtomicLong();
+    private static final AtomicLong sSendFailureCount = new AtomicLong();
+    private static final AtomicLong sSendNanos = new AtomicLong();
+
+    private final GoogleApiClient mClient;
+
+    private WearableChannel(Context context) {
+        mClient = new GoogleApiClient.Builder(context)
+                /* Request access only to the Wearable API */
+                .addApi(Wearable.API)
+                .build();
+    }
+
+    /**
+     * @param context Any context; the channel only keeps the application context
+     * @return The channel of the process
+     */
+    static synchronized WearableChannel getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearableChannel(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Connects the client, unless it already is.
+     *
+     * @return true if the client is connected
+     */
+    private synchronized boolean ensureConnected() {
+        if (mClient.isConnected()) {
+            sReuseCount.incrementAndGet();
+            return true;
+        }
+
+        ConnectionResult result =
+                mClient.blockingConnect(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (!result.isSuccess()) {
+            sConnectFailureCount.incrementAndGet();
+            Log.w(TAG, "Couldn't connect to the Wearable API: " + result);
+            /* Don't leave a connection that timed out pending, the next push starts over */
+            mClient.disconnect();
+            return false;
+        }
+        sConnectCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Puts a data item, and waits until Play Services has taken it.
+     *
+     * @param request The data item to put
+     * @return true if the data item was put, false if there was no connection or putting it
+     * failed or timed out
+     */
+    boolean putDataItem(PutDataRequest request) {
+        if (!ensureConnected()) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        DataApi.DataItemResult result = Wearable.DataApi.putDataItem(mClient, request)
+                .await(SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        sSendNanos.addAndGet(System.nanoTime() - start);
+        sSendCount.incrementAndGet();
+
+        if (!result.getStatus().isSuccess()) {
+            sSendFailureCount.incrementAndGet();
+            Log.w(TAG, "Couldn't put " + request.getUri() + ": " + result.getStatus());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Asks Play Services which wearables are connected. It keeps track of them itself, so this
+     * doesn't wake the Bluetooth radio up.
+     *
+     * @return The IDs of the connected nodes, sorted, or null if there was no connection or the
+     * request failed or timed out
+     */
+    String[] getConnectedNodeIds() {
+        if (!ensureConnected()) {
+            return null;
+        }
+
+        NodeApi.GetConnectedNodesResult result = Wearable.NodeApi.getConnectedNodes(mClient)
+                .await(SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (!result.getStatus().isSuccess()) {
+            Log.w(TAG, "Couldn't get the connected nodes: " + result.getStatus());
+            return null;
+        }
+
+        List<Node> nodes = result.getNodes();
+        String[] nodeIds = new String[nodes.size()];
+        for (int i = 0; i < nodeIds.length; i++) {
+            nodeIds[i] = nodes.get(i).getId();
+        }
+        Arrays.sort(nodeIds);
+        return nodeIds;
+    }
+
+    /**
+     * @return The number of times the client connected
+     */
+    static long getConnectCount() {
+        return sConnectCount.get();
+    }
+
+    /**
+     * @return The number of times the client failed to connect, or timed out
+     */
+    static long getConnectFailureCount() {
+        return sConnectFailureCount.get();
+    }
+
+    /**
+     * @return The number of pushes that found the client already connected
+     */
+    static long getReuseCount() {
+        return sReuseCount.get();
+    }
+
+    /**
+     * @return The number of data items that were put, whether that succeeded or not
+     */
+    static long getSendCount() {
+        return sSendCount.get();
+    }
+
+    /**
+     * @return The number of data items that failed to be put
+     */
+    static long getSendFailureCount() {
+        return sSendFailureCount.get();
+    }
+
+    /**
+     * @return The total time it took to put the data items, in nanoseconds
+     */
+    static long getSendNanos() {
+        return sSendNanos.get();
+    }
+}
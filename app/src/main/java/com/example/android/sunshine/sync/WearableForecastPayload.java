@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+
+import java.util.Arrays;
+
+/**
+ * Encodes a forecast of several days into the compact binary payload the watch face reads. The
+ * days follow each other, and the weather rarely changes much from one day to the next, so each
+ * value is stored as its difference to the one before it, in a variable-length integer that takes
+ * a single byte for small differences. A week of weather fits in under 40 bytes.
+ * <p>
+ * The format, which DigitialSunshineWatchFace decodes with its own copy of the constants below:
+ * <pre>
+ * byte    FORMAT_VERSION
+ * byte    flags, FLAG_FAHRENHEIT if the temperatures are in degrees Fahrenheit
+ * varint  the date of the first day, in days since the epoch
+ * byte    the number of days
+ * for every day:
+ *   zigzag varint  its weather ID minus the weather ID of the day before (0 for the first day)
+ *   zigzag varint  its high minus the high of the day before (0 for the first day)
+ *   zigzag varint  its high minus its low
+ * </pre>
+ * Temperatures are in whole degrees of the user's preferred unit, rounded the way the phone
+ * shows them, so that the watch shows the same ones without rounding them again.
+ */
+final class WearableForecastPayload {
+
+    static final int FORMAT_VERSION = 2;
+    static final int FLAG_FAHRENHEIT = 1;
+
+    /* The most days a payload holds; the watch face keeps room for this many */
+    static final int MAX_DAYS = 7;
+
+    /* Version, flags, a date until 2^35 days, the day count, and three 5 byte varints a day */
+    private static final int MAX_PAYLOAD_SIZE = 1 + 1 + 5 + 1 + MAX_DAYS * 3 * 5;
+
+    private final byte[] mBuffer = new byte[MAX_PAYLOAD_SIZE];
+    private int mLength;
+
+    /* Where the day count is, right before the first day */
+    private int mDayCountOffset;
+    private int mDayCount;
+    private int mPreviousWeatherId;
+    private int mPreviousHigh;
+
+    /**
+     * Starts a new payload, discarding the days added so far.
+     *
+     * @param firstDayOfEpoch The date of the first day, in days since the epoch
+     * @param fahrenheit      true if the temperatures that will be added are in Fahrenheit
+     */
+    void reset(long firstDayOfEpoch, boolean fahrenheit) {
+        mLength = 0;
+        mDayCount = 0;
+        mPreviousWeatherId = 0;
+        mPreviousHigh = 0;
+
+        mBuffer[mLength++] = FORMAT_VERSION;
+        mBuffer[mLength++] = (byte) (fahrenheit ? FLAG_FAHRENHEIT : 0);
+        writeVarint(firstDayOfEpoch);
+        /* The day count is filled in as days are added */
+        mDayCountOffset = mLength;
+        mBuffer[mLength++] = 0;
+    }
+
+    /**
+     * Adds the next day to the payload.
+     *
+     * @param weatherId The weather ID of the day
+     * @param high      The high of the day, in the unit passed to {@link #reset(long, boolean)}
+     * @param low       The low of the day, in the same unit
+     * @return false if the payload is full and the day wasn't added
+     */
+    boolean addDay(int weatherId, double high, double low) {
+        if (mDayCount == MAX_DAYS) {
+            return false;
+        }
+        int highDegrees = toDegrees(high);
+        int lowDegrees = toDegrees(low);
+
+        writeVarint(zigzag(weatherId - mPreviousWeatherId));
+        writeVarint(zigzag(highDegrees - mPreviousHigh));
+        writeVarint(zigzag(highDegrees - lowDegrees));
+
+        mPreviousWeatherId = weatherId;
+        mPreviousHigh = highDegrees;
+        mDayCount++;
+        mBuffer[mDayCountOffset] = (byte) mDayCount;
+        return true;
+    }
+
+    /**
+     * @return The number of days in the payload
+     */
+    int getDayCount() {
+        return mDayCount;
+    }
+
+    /**
+     * @return A copy of the payload, to hand to the Wearable API
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(mBuffer, mLength);
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            mBuffer[mLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mBuffer[mLength++] = (byte) value;
+    }
+
+    /* Maps signed values to unsigned ones, so that small negative values stay small */
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int toDegrees(double temperature) {
+        return (int) SunshineWeatherUtils.roundTemperature(temperature);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server answers a request with an error status, 4xx or 5xx. HttpURLConnection
+ * would otherwise only fail once the body is read, with an exception that doesn't tell a server
+ * that is down from a location that doesn't exist.
+ */
+public class HttpStatusException extends IOException {
+
+    private final int mStatusCode;
+
+    /**
+     * @param statusCode The HTTP status code of the response
+     * @param url        The URL that was requested
+     */
+    public HttpStatusException(int statusCode, String url) {
+        super("HTTP " + statusCode + ": " + url);
+        mStatusCode = statusCode;
+    }
+
+    /**
+     * @return The HTTP status code of the response
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+}
@@ -20,13 +20,15 @@ import android.net.Uri;
 import android.util.Log;
 
 import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.sync.SyncCancellationSignal;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -83,6 +85,22 @@ public final class NetworkUtils {
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
 
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String ENCODING_GZIP = "gzip";
+
+    /*
+     * Counters for conditional requests. A hit is a request the server answered with 304 Not
+     * Modified, which saves us the download as well as the whole parse and database update. A
+     * miss is a request that returned a full response.
+     */
+    private static final AtomicLong sConditionalHitCount = new AtomicLong();
+    private static final AtomicLong sConditionalMissCount = new AtomicLong();
+    private static final AtomicLong sConditionalBytesSaved = new AtomicLong();
+
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
      * well as {@link #buildUrlWithLocationQuery(String)} is two fold.
@@ -109,6 +127,22 @@ public final class NetworkUtils {
         }
     }
 
+    /**
+     * Retrieves the URL to query for the weather data of a location. The user's preferred
+     * location is looked up as in {@link #getUrl(Context)}, any other location by its location
+     * setting, as we don't store the coordinates of other locations in the preferences.
+     *
+     * @param context         used to access other Utility methods
+     * @param locationSetting The location setting of the location
+     * @return URL to query weather service
+     */
+    public static URL getUrl(Context context, String locationSetting) {
+        if (locationSetting.equals(SunshinePreferences.getPreferredWeatherLocation(context))) {
+            return getUrl(context);
+        }
+        return buildUrlWithLocationQuery(locationSetting);
+    }
+
     /**
      * Builds the URL used to talk to the weather server using latitude and longitude of a
      * location.
@@ -162,29 +196,244 @@ public final class NetworkUtils {
     }
 
     /**
-     * This method returns the entire result from the HTTP response.
+     * Opens a connection to the given URL and asks the server for a gzip compressed response. Use
+     * {@link #getResponseStream(HttpURLConnection)} to read the body, as it takes care of
+     * decompressing it. The caller is responsible for calling
+     * {@link HttpURLConnection#disconnect()} once the response has been read.
      *
      * @param url The URL to fetch the HTTP response from.
-     * @return The contents of the HTTP response, null if no response
+     * @return An open connection to the URL
      * @throws IOException Related to network and stream reading
      */
-    public static String getResponseFromHttpUrl(URL url) throws IOException {
+    public static HttpURLConnection openHttpUrlConnection(URL url) throws IOException {
         HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        /*
+         * HttpURLConnection would negotiate gzip on its own, but it then hides the compressed
+         * length from us. Asking for it explicitly means we have to inflate the body ourselves.
+         */
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        return urlConnection;
+    }
+
+    /**
+     * Returns the body of the response, inflating it if the server sent it gzip compressed.
+     *
+     * @param urlConnection A connection opened with {@link #openHttpUrlConnection(URL)}
+     * @return The (decompressed) response body
+     * @throws IOException Related to network and stream reading
+     */
+    public static InputStream getResponseStream(HttpURLConnection urlConnection)
+            throws IOException {
+        InputStream in = urlConnection.getInputStream();
+        if (ENCODING_GZIP.equalsIgnoreCase(urlConnection.getContentEncoding())) {
+            in = new GZIPInputStream(in);
+        }
+        return in;
+    }
+
+    /**
+     * This method returns the entire result from the HTTP response as raw bytes, in a pooled
+     * {@link ResponseBuffer}. Unlike {@link #getResponseFromHttpUrl(URL)}, the body is never
+     * decoded into a String, so it can be handed to a parser without any further copies.
+     * <p>
+     * The caller must {@link ResponseBuffer#recycle()} the buffer once it is done with it.
+     *
+     * @param url The URL to fetch the HTTP response from.
+     * @return The contents of the HTTP response, null if no response
+     * @throws IOException Related to network and stream reading
+     */
+    public static ResponseBuffer getResponseBufferFromHttpUrl(URL url) throws IOException {
+        HttpURLConnection urlConnection = openHttpUrlConnection(url);
+        try {
+            return readResponseBuffer(urlConnection);
+        } finally {
+            urlConnection.disconnect();
+        }
+    }
+
+    /**
+     * Like {@link #getResponseBufferFromHttpUrl(URL)}, but makes the request conditional on the
+     * ETag and Last-Modified validators saved for this URL with
+     * {@link #saveResponseValidators(Context, URL, ResponseBuffer, long)}. If the server answers
+     * with 304 Not Modified, the returned buffer is empty and
+     * {@link ResponseBuffer#isNotModified()} returns true.
+     * <p>
+     * The days of a stored forecast are dated from the day it was parsed on, so the validators
+     * are only sent on that same day. The first request of a new day downloads the full
+     * forecast, so that it is dated again; otherwise the server would keep answering 304 while
+     * the stored days fall into the past one by one.
+     * <p>
+     * The caller must {@link ResponseBuffer#recycle()} the buffer once it is done with it.
+     *
+     * @param context Used to access the validators saved for this URL
+     * @param url     The URL to fetch the HTTP response from.
+     * @return The contents of the HTTP response, null if no response
+     * @throws IOException Related to network and stream reading
+     */
+    public static ResponseBuffer getConditionalResponseBufferFromHttpUrl(Context context, URL url)
+            throws IOException {
+        return getConditionalResponseBufferFromHttpUrl(context, url, null);
+    }
+
+    /**
+     * Like {@link #getConditionalResponseBufferFromHttpUrl(Context, URL)}, but the download can
+     * be canceled: canceling the signal disconnects the connection, so that a read that is
+     * waiting for the network fails right away.
+     *
+     * @param context            Used to access the validators saved for this URL
+     * @param url                The URL to fetch the HTTP response from.
+     * @param cancellationSignal The signal of the sync, or null if it can't be canceled
+     * @return The contents of the HTTP response, null if no response
+     * @throws IOException Related to network and stream reading, or if the download was canceled
+     */
+    public static ResponseBuffer getConditionalResponseBufferFromHttpUrl(Context context, URL url,
+            SyncCancellationSignal cancellationSignal) throws IOException {
+        String urlString = url.toString();
+
+        HttpURLConnection urlConnection = openHttpUrlConnection(url);
+        if (cancellationSignal != null) {
+            cancellationSignal.attachConnection(urlConnection);
+        }
         try {
-            InputStream in = urlConnection.getInputStream();
+            boolean datedToday = SunshinePreferences.getResponseDatedFrom(context, urlString)
+                    == SunshineDateUtils.getNormalizedUtcDateForToday();
+            String etag = datedToday
+                    ? SunshinePreferences.getResponseEtag(context, urlString)
+                    : null;
+            String lastModified = datedToday
+                    ? SunshinePreferences.getResponseLastModified(context, urlString)
+                    : null;
+
+            if (etag != null) {
+                urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+            }
+            if (lastModified != null) {
+                urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+            }
+
+            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                long bytesSaved = SunshinePreferences.getResponseLength(context, urlString);
+                sConditionalHitCount.incrementAndGet();
+                sConditionalBytesSaved.addAndGet(bytesSaved);
+                Log.v(TAG, "Not modified, saved " + bytesSaved + " bytes: " + urlString);
+
+                ResponseBuffer notModified = ResponseBuffer.obtain();
+                notModified.setNotModified();
+                return notModified;
+            }
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+            sConditionalMissCount.incrementAndGet();
 
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
+            ResponseBuffer response = readResponseBuffer(urlConnection);
+            if (response != null) {
+                response.setValidators(
+                        urlConnection.getHeaderField(HEADER_ETAG),
+                        urlConnection.getHeaderField(HEADER_LAST_MODIFIED));
             }
-            scanner.close();
             return response;
         } finally {
+            if (cancellationSignal != null) {
+                cancellationSignal.detachConnection(urlConnection);
+            }
             urlConnection.disconnect();
         }
     }
+
+    /**
+     * Saves the validators of a response so that the next request for the same URL can be made
+     * conditional. This should only be called once the response has been completely processed;
+     * otherwise a failure after this point would leave us with validators for data we never
+     * stored, and the server would keep telling us that nothing has changed.
+     *
+     * @param context   Used to save the validators
+     * @param url       The URL the response was fetched from
+     * @param response  The response, as returned by
+     *                  {@link #getConditionalResponseBufferFromHttpUrl(Context, URL)}
+     * @param datedFrom The normalized UTC date the days of the response were dated from, taken
+     *                  before it was parsed
+     */
+    public static void saveResponseValidators(Context context, URL url, ResponseBuffer response,
+            long datedFrom) {
+        SunshinePreferences.setResponseValidators(context,
+                url.toString(),
+                response.getEtag(),
+                response.getLastModified(),
+                response.length(),
+                datedFrom);
+    }
+
+    /**
+     * @return The number of conditional requests answered with 304 Not Modified
+     */
+    public static long getConditionalHitCount() {
+        return sConditionalHitCount.get();
+    }
+
+    /**
+     * @return The number of conditional requests that returned a full response
+     */
+    public static long getConditionalMissCount() {
+        return sConditionalMissCount.get();
+    }
+
+    /**
+     * @return An estimate of the bytes we didn't download thanks to 304 responses, based on the
+     * size of the last full response for each URL
+     */
+    public static long getConditionalBytesSaved() {
+        return sConditionalBytesSaved.get();
+    }
+
+    /**
+     * Reads the body of the response into a pooled {@link ResponseBuffer}.
+     *
+     * @param urlConnection A connection opened with {@link #openHttpUrlConnection(URL)}
+     * @return The contents of the HTTP response, null if no response
+     * @throws HttpStatusException If the server answered with an error status
+     * @throws IOException Related to network and stream reading
+     */
+    private static ResponseBuffer readResponseBuffer(HttpURLConnection urlConnection)
+            throws IOException {
+        int statusCode = urlConnection.getResponseCode();
+        if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            throw new HttpStatusException(statusCode, urlConnection.getURL().toString());
+        }
+
+        InputStream in = getResponseStream(urlConnection);
+
+        ResponseBuffer response = ResponseBuffer.obtain();
+        try {
+            response.readFrom(in);
+        } catch (IOException e) {
+            response.recycle();
+            throw e;
+        } finally {
+            in.close();
+        }
+
+        if (response.isEmpty()) {
+            response.recycle();
+            return null;
+        }
+        return response;
+    }
+
+    /**
+     * This method returns the entire result from the HTTP response.
+     *
+     * @param url The URL to fetch the HTTP response from.
+     * @return The contents of the HTTP response, null if no response
+     * @throws IOException Related to network and stream reading
+     */
+    public static String getResponseFromHttpUrl(URL url) throws IOException {
+        ResponseBuffer response = getResponseBufferFromHttpUrl(url);
+        if (response == null) {
+            return null;
+        }
+        try {
+            return response.toUtf8String();
+        } finally {
+            response.recycle();
+        }
+    }
 }
\ No newline at end of file
@@ -15,9 +15,13 @@
  */
 package com.example.android.sunshine.utilities;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
+import android.os.Build;
+import android.util.JsonReader;
 
+import com.example.android.sunshine.data.ForecastBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 
@@ -25,6 +29,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 
 /**
@@ -60,6 +67,44 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /* Bits used by the streaming parser to make sure every field of a day has been read */
+    private static final int DAY_FIELD_PRESSURE = 1;
+    private static final int DAY_FIELD_HUMIDITY = 1 << 1;
+    private static final int DAY_FIELD_WIND_SPEED = 1 << 2;
+    private static final int DAY_FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int DAY_FIELD_WEATHER_ID = 1 << 4;
+    private static final int DAY_FIELD_MAX = 1 << 5;
+    private static final int DAY_FIELD_MIN = 1 << 6;
+    private static final int DAY_FIELDS_ALL = (1 << 7) - 1;
+
+    /*
+     * Whether the forecast should be read token by token straight from the network stream rather
+     * than by building a JSONObject tree from a String first. This can be switched off to fall
+     * back to the DOM path, which is also always used on devices without android.util.JsonReader.
+     */
+    private static volatile boolean sStreamingParserEnabled = true;
+
+    /**
+     * Returns true if forecasts should be parsed with
+     * {@link #getWeatherContentValuesFromStream(Context, InputStream)}. The streaming parser
+     * relies on {@link JsonReader}, which was only added in Honeycomb.
+     *
+     * @return true if the streaming parser should be used, false to use the DOM parser
+     */
+    public static boolean isStreamingParserEnabled() {
+        return sStreamingParserEnabled
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * Switches between the streaming parser and the original DOM parser.
+     *
+     * @param enabled true to parse forecasts from the stream, false to fall back to the DOM path
+     */
+    public static void setStreamingParserEnabled(boolean enabled) {
+        sStreamingParserEnabled = enabled;
+    }
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
@@ -182,6 +227,281 @@ public final class OpenWeatherJsonUtils {
         return weatherContentValues;
     }
 
+    /**
+     * Streaming counterpart of {@link #getWeatherContentValuesFromJson(Context, String)}. Rather
+     * than building a JSONObject tree for the whole response, this reads the forecast token by
+     * token from the stream. The days are the same as the ones the DOM parser returns, but are
+     * converted from a {@link ForecastBatch}, so all of the values other than the weather ID are
+     * stored as doubles.
+     * <p>
+     * The stream is closed once the forecast has been read.
+     *
+     * @param forecastJsonStream JSON response from server, usually straight from the connection
+     *
+     * @return Array of ContentValues for each day, or null if the server returned an error code
+     *
+     * @throws IOException If the stream cannot be read or the JSON data is not a valid forecast
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static ContentValues[] getWeatherContentValuesFromStream(Context context,
+            InputStream forecastJsonStream) throws IOException {
+
+        ForecastBatch forecast = getForecastBatchFromStream(context, forecastJsonStream);
+        return forecast != null ? forecast.toContentValues() : null;
+    }
+
+    /**
+     * Reads a forecast of the user's preferred location token by token from the stream into a
+     * {@link ForecastBatch}, and saves the coordinates of the city in the preferences, as the DOM
+     * parser does.
+     * <p>
+     * The stream is closed once the forecast has been read.
+     *
+     * @param forecastJsonStream JSON response from server, usually straight from the connection
+     *
+     * @return The forecast, or null if the server returned an error code
+     *
+     * @throws IOException If the stream cannot be read or the JSON data is not a valid forecast
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static ForecastBatch getForecastBatchFromStream(Context context,
+            InputStream forecastJsonStream) throws IOException {
+
+        ForecastBatch forecast = getForecastBatchFromStream(forecastJsonStream);
+
+        if (forecast != null) {
+            SunshinePreferences.setLocationDetails(context,
+                    forecast.getCityLatitude(),
+                    forecast.getCityLongitude());
+        }
+
+        return forecast;
+    }
+
+    /**
+     * Reads a forecast token by token from the stream into a {@link ForecastBatch}. Each day is
+     * added to the batch as soon as it has been read, without creating any objects for it. The
+     * coordinates of the city are stored in the batch, not in the preferences, so this can be
+     * used for any location.
+     * <p>
+     * The stream is closed once the forecast has been read.
+     *
+     * @param forecastJsonStream JSON response from server, usually straight from the connection
+     *
+     * @return The forecast, or null if the server returned an error code
+     *
+     * @throws IOException If the stream cannot be read or the JSON data is not a valid forecast
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static ForecastBatch getForecastBatchFromStream(InputStream forecastJsonStream)
+            throws IOException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(forecastJsonStream, "UTF-8"));
+
+        try {
+            boolean hasErrorCode = false;
+            int errorCode = HttpURLConnection.HTTP_OK;
+
+            double[] cityCoord = null;
+            ForecastBatch forecast = null;
+
+            /*
+             * As with the DOM parser, we ignore the dates sent by the server and assume that the
+             * days are returned in-order, starting with today.
+             */
+            long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    hasErrorCode = true;
+                    errorCode = reader.nextInt();
+
+                } else if (OWM_CITY.equals(name)) {
+                    cityCoord = readCityCoordinates(reader);
+
+                } else if (OWM_LIST.equals(name)) {
+                    forecast = new ForecastBatch();
+
+                    reader.beginArray();
+                    for (int i = 0; reader.hasNext(); i++) {
+                        long dateTimeMillis =
+                                normalizedUtcStartDay + SunshineDateUtils.DAY_IN_MILLIS * i;
+                        readDayForecast(reader, dateTimeMillis, forecast);
+                    }
+                    reader.endArray();
+
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            /* Is there an error? The server is either down or the location is invalid. */
+            if (hasErrorCode && errorCode != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+
+            if (forecast == null) {
+                throw new IOException("No value for " + OWM_LIST);
+            }
+            if (cityCoord == null) {
+                throw new IOException("No value for " + OWM_CITY);
+            }
+
+            forecast.setCityCoordinates(cityCoord[0], cityCoord[1]);
+
+            return forecast;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the "city" object of the forecast and returns its coordinates.
+     *
+     * @param reader JsonReader positioned at the start of the "city" object
+     * @return An array holding the latitude and longitude of the city, in that order
+     * @throws IOException If the city doesn't contain both coordinates
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static double[] readCityCoordinates(JsonReader reader) throws IOException {
+        double[] cityCoord = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (OWM_COORD.equals(reader.nextName())) {
+                boolean hasLatitude = false;
+                boolean hasLongitude = false;
+                cityCoord = new double[2];
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (OWM_LATITUDE.equals(name)) {
+                        cityCoord[0] = reader.nextDouble();
+                        hasLatitude = true;
+                    } else if (OWM_LONGITUDE.equals(name)) {
+                        cityCoord[1] = reader.nextDouble();
+                        hasLongitude = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                if (!hasLatitude || !hasLongitude) {
+                    throw new IOException("Incomplete " + OWM_COORD + " in " + OWM_CITY);
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityCoord == null) {
+            throw new IOException("No value for " + OWM_COORD);
+        }
+        return cityCoord;
+    }
+
+    /**
+     * Reads a single day from the "list" array of the forecast and adds it to the batch.
+     *
+     * @param reader         JsonReader positioned at the start of the day's object
+     * @param dateTimeMillis Normalized UTC date to store for this day
+     * @param forecast       The batch to add the day to
+     * @throws IOException If any of the values we store is missing from the day
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDayForecast(JsonReader reader, long dateTimeMillis,
+            ForecastBatch forecast) throws IOException {
+
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+
+        double high = 0;
+        double low = 0;
+
+        int weatherId = 0;
+
+        int fieldsRead = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+                fieldsRead |= DAY_FIELD_PRESSURE;
+
+            } else if (OWM_HUMIDITY.equals(name)) {
+                /* JSONObject.getInt truncates decimals, so we do the same here */
+                humidity = (int) reader.nextDouble();
+                fieldsRead |= DAY_FIELD_HUMIDITY;
+
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+                fieldsRead |= DAY_FIELD_WIND_SPEED;
+
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+                fieldsRead |= DAY_FIELD_WIND_DIRECTION;
+
+            } else if (OWM_WEATHER.equals(name)) {
+                /* Only the first element of the "weather" array is used */
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                            weatherId = (int) reader.nextDouble();
+                            fieldsRead |= DAY_FIELD_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        high = reader.nextDouble();
+                        fieldsRead |= DAY_FIELD_MAX;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        low = reader.nextDouble();
+                        fieldsRead |= DAY_FIELD_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (fieldsRead != DAY_FIELDS_ALL) {
+            throw new IOException("Incomplete day in " + OWM_LIST + " for " + dateTimeMillis);
+        }
+
+        forecast.add(dateTimeMillis, weatherId, low, high, humidity, pressure, windSpeed,
+                windDirection);
+    }
+
     public static String getWearableWeatherFromJson(Context context, String forecastJsonStr) throws JSONException {
         JSONObject forecastJson = new JSONObject(forecastJsonStr);
 
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * A reusable byte buffer that holds the raw body of an HTTP response. Rather than turning every
+ * response into a String, the bytes are kept as they came off the wire and can be handed to a
+ * parser through {@link #asInputStream()} without being copied.
+ * <p>
+ * Buffers are pooled, in the same spirit as {@link android.os.Message#obtain()}. Get one with
+ * {@link #obtain()} and give it back with {@link #recycle()} once you are done reading it. The
+ * sync downloads the forecast of the preferred location on its own thread while up to three
+ * other locations download theirs, so the pool keeps a buffer for each of those downloads.
+ */
+public final class ResponseBuffer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* A 14 day forecast is around 6 KB, so this is enough to read it without growing */
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    /*
+     * Buffers that had to grow beyond this size are not put back in the pool, so that a single
+     * unusually large response doesn't pin that much memory for the rest of the process' life.
+     */
+    private static final int MAX_POOLED_CAPACITY = 256 * 1024;
+
+    /*
+     * One buffer for the thread that syncs the preferred location, and one for each of the
+     * threads SunshineSyncTask downloads the other locations on.
+     */
+    private static final int MAX_POOL_SIZE = 1 + 3;
+
+    private static final Object sPoolLock = new Object();
+    private static ResponseBuffer sPool;
+    private static int sPoolSize;
+
+    /* The next buffer in the pool, while this one is in it */
+    private ResponseBuffer mNext;
+
+    private byte[] mBytes;
+    private int mLength;
+
+    /* Response metadata, see NetworkUtils#getConditionalResponseBufferFromHttpUrl */
+    private boolean mNotModified;
+    private String mEtag;
+    private String mLastModified;
+
+    private ResponseBuffer() {
+        mBytes = new byte[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Returns an empty buffer from the pool, or a new one if every pooled buffer is in use.
+     *
+     * @return An empty ResponseBuffer
+     */
+    public static ResponseBuffer obtain() {
+        synchronized (sPoolLock) {
+            if (sPool != null) {
+                ResponseBuffer buffer = sPool;
+                sPool = buffer.mNext;
+                buffer.mNext = null;
+                sPoolSize--;
+                return buffer;
+            }
+        }
+        return new ResponseBuffer();
+    }
+
+    /**
+     * Returns this buffer to the pool. The buffer, and any stream obtained from
+     * {@link #asInputStream()}, must not be used after calling this method.
+     */
+    public void recycle() {
+        mLength = 0;
+        mNotModified = false;
+        mEtag = null;
+        mLastModified = null;
+        if (mBytes.length > MAX_POOLED_CAPACITY) {
+            return;
+        }
+        synchronized (sPoolLock) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                mNext = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+
+    /**
+     * Reads the given stream until it is exhausted, appending everything to this buffer. The
+     * buffer grows by doubling when it runs out of space. The stream is not closed.
+     *
+     * @param in The stream to read
+     * @throws IOException Related to stream reading
+     */
+    void readFrom(InputStream in) throws IOException {
+        while (true) {
+            if (mLength == mBytes.length) {
+                byte[] grown = new byte[mBytes.length * 2];
+                System.arraycopy(mBytes, 0, grown, 0, mLength);
+                mBytes = grown;
+            }
+
+            int read = in.read(mBytes, mLength, mBytes.length - mLength);
+            if (read == -1) {
+                return;
+            }
+            mLength += read;
+        }
+    }
+
+    /**
+     * Records the validators the server sent along with this response, so that they can be used
+     * to make the next request for the same URL conditional.
+     *
+     * @param etag         Value of the ETag header, or null if there wasn't one
+     * @param lastModified Value of the Last-Modified header, or null if there wasn't one
+     */
+    void setValidators(String etag, String lastModified) {
+        mEtag = etag;
+        mLastModified = lastModified;
+    }
+
+    /**
+     * Marks this (empty) buffer as the result of a request the server answered with
+     * 304 Not Modified.
+     */
+    void setNotModified() {
+        mNotModified = true;
+    }
+
+    /**
+     * @return true if the server told us that the content we already have is still current, in
+     * which case this buffer holds no bytes
+     */
+    public boolean isNotModified() {
+        return mNotModified;
+    }
+
+    /**
+     * @return The ETag of this response, or null if the server didn't send one
+     */
+    public String getEtag() {
+        return mEtag;
+    }
+
+    /**
+     * @return The Last-Modified date of this response, or null if the server didn't send one
+     */
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * @return The number of bytes held in this buffer
+     */
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * @return true if this buffer doesn't hold any bytes
+     */
+    public boolean isEmpty() {
+        return mLength == 0;
+    }
+
+    /**
+     * Returns a stream over the bytes in this buffer. No bytes are copied, so the stream is only
+     * valid until the buffer is recycled.
+     *
+     * @return An InputStream over the contents of this buffer
+     */
+    public InputStream asInputStream() {
+        return new ByteArrayInputStream(mBytes, 0, mLength);
+    }
+
+    /**
+     * Decodes the contents of this buffer as UTF-8. Only use this when a String is really needed,
+     * as it allocates a char array as large as the whole response.
+     *
+     * @return The contents of this buffer as a String
+     */
+    public String toUtf8String() {
+        return new String(mBytes, 0, mLength, UTF_8);
+    }
+}
@@ -37,7 +37,7 @@ public final class SunshineWeatherUtils {
      *
      * @return Temperature in degrees Fahrenheit (°F)
      */
-    private static double celsiusToFahrenheit(double temperatureInCelsius) {
+    public static double celsiusToFahrenheit(double temperatureInCelsius) {
         double temperatureInFahrenheit = (temperatureInCelsius * 1.8) + 32;
         return temperatureInFahrenheit;
     }
@@ -65,6 +65,18 @@ public final class SunshineWeatherUtils {
         return String.format(context.getString(temperatureFormatResourceId), temperature);
     }
 
+    /**
+     * Rounds a temperature to whole degrees the way {@link #formatTemperature} shows it, with
+     * halves rounded away from zero.
+     *
+     * @param temperature Temperature in the unit it will be shown in
+     *
+     * @return The temperature in whole degrees of the same unit
+     */
+    public static long roundTemperature(double temperature) {
+        return temperature < 0 ? -Math.round(-temperature) : Math.round(temperature);
+    }
+
     /**
      * This method will format the temperatures to be displayed in the
      * following form: "HIGH° / LOW°"
@@ -29,11 +29,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.content.res.Resources;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Point;
 import android.graphics.Rect;
 import android.os.Bundle;
 import android.os.Handler;
@@ -43,58 +39,33 @@ import android.support.annotation.Nullable;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.util.Log;
-import android.view.Display;
-import android.view.LayoutInflater;
 import android.view.SurfaceHolder;
-import android.view.View;
 import android.view.WindowInsets;
-import android.view.WindowManager;
-import android.widget.ImageView;
-import android.widget.TextView;
-import android.widget.Toast;
 
 import java.lang.ref.WeakReference;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
-import static android.graphics.BitmapFactory.decodeResource;
-
 /**
- * Digital watch face with seconds. In ambient mode, the seconds aren't displayed. On devices with
- * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode.
+ * Digital watch face with hours and minutes, the date and the weather of the day. In interactive
+ * mode it is redrawn when the minute changes, see {@link TickScheduler}; in ambient mode the
+ * system's time tick redraws it. On devices with low-bit ambient mode, the text is drawn without
+ * anti-aliasing in ambient mode.
  */
 public class DigitialSunshineWatchFace extends CanvasWatchFaceService {
 
     private static final String LOG_TAG = DigitialSunshineWatchFace.class.getSimpleName();
 
     private static final String WEATHER_DATA_PATH = "/weather";
-    private static final String WEATHER_MIN_DATA_KEY = "weather.min";
-    private static final String WEATHER_MAX_DATA_KEY = "weather.max";
-    private static final String ICON_ID_DATA_KEY = "iconID";
-
+    private static final String FORECAST_DATA_KEY = "forecast";
 
-    String mMinTemp = "0";
-    String mMaxTemp = "0";
-    int mIconID;
 
-    private int specW, specH;
-    private View mWatchfaceLayout;
-    private TextView date_textView;
-    private TextView hour_textView;
-    private TextView  minute_textView;
-    private ImageView weatherIcon_imageView;
-    private TextView tempHigh_textView;
-    private TextView tempLow_textView;
-    private final Point displaySize = new Point();
+    /* The days of weather the phone sent last */
+    private final WearableForecast mForecast = new WearableForecast();
 
-    /**
-     * Update rate in milliseconds for interactive mode. We update once a second since seconds are
-     * displayed in interactive mode.
-     */
-    private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
+    /* The day whose weather the face shows, in days since the epoch, or -1 */
+    private long mWeatherDay = -1;
 
     /**
      * Handler message id for updating the time periodically in interactive mode.
@@ -132,22 +103,22 @@ public class DigitialSunshineWatchFace extends CanvasWatchFaceService {
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
 
-        Paint mBackgroundPaint;
+        /* Draws the face, see onDraw */
+        WatchFaceRenderer mRenderer;
+        final FrameStats mFrameStats = new FrameStats();
 
         boolean mAmbient;
         Calendar mCalendar;
-        Date mDate;
 
-        String mDateString;
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 mCalendar.setTimeZone(TimeZone.getDefault());
                 invalidate();
+                // The next minute starts at a different time in the new zone.
+                updateTimer();
             }
         };
-        float mXOffset;
-        float mYOffset;
 
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
@@ -155,8 +126,6 @@ public class DigitialSunshineWatchFace extends CanvasWatchFaceService {
          */
         boolean mLowBitAmbient;
 
-        SimpleDateFormat simpleDateFormat;
-
         GoogleApiClient mGoogleApiClient = new GoogleApiClient.Builder(DigitialSunshineWatchFace.this)
                 .addConnectionCallbacks(this)
                 .addOnConnectionFailedListener(this)
@@ -167,43 +136,21 @@ public class DigitialSunshineWatchFace extends CanvasWatchFaceService {
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
 
-            LayoutInflater inflater =
-                    (LayoutInflater) getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-            mWatchfaceLayout = inflater.inflate(R.layout.watchface, null);
-
-            Display display = ((WindowManager) getSystemService(Context.WINDOW_SERVICE))
-                    .getDefaultDisplay();
-            display.getSize(displaySize);
-
-            specW = View.MeasureSpec.makeMeasureSpec(displaySize.x,
-                    View.MeasureSpec.EXACTLY);
-            specH = View.MeasureSpec.makeMeasureSpec(displaySize.y,
-                    View.MeasureSpec.EXACTLY);
-
-            date_textView = (TextView) mWatchfaceLayout.findViewById(R.id.date_text_view);
-            hour_textView = (TextView) mWatchfaceLayout.findViewById(R.id.hour_text_view);
-            minute_textView = (TextView) mWatchfaceLayout.findViewById(R.id.minutes_text_view);
-            weatherIcon_imageView = (ImageView) mWatchfaceLayout.findViewById(R.id.weather_icon_image_view);
-            tempHigh_textView = (TextView) mWatchfaceLayout.findViewById(R.id.tempHigh_text_view);
-            tempLow_textView = (TextView) mWatchfaceLayout.findViewById(R.id.tempLow_text_view);
-
-
             setWatchFaceStyle(new WatchFaceStyle.Builder(DigitialSunshineWatchFace.this)
                     .setCardPeekMode(WatchFaceStyle.PEEK_MODE_VARIABLE)
                     .setBackgroundVisibility(WatchFaceStyle.BACKGROUND_VISIBILITY_INTERRUPTIVE)
                     .setShowSystemUiTime(false)
                     .setAcceptsTapEvents(true)
                     .build());
-            Resources resources = DigitialSunshineWatchFace.this.getResources();
-            mYOffset = resources.getDimension(R.dimen.digital_y_offset);
-
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(resources.getColor(R.color.background));
+            mRenderer = new WatchFaceRenderer(DigitialSunshineWatchFace.this.getResources());
 
             mCalendar = Calendar.getInstance();
-            mDate = new Date();
+        }
 
-            simpleDateFormat = new SimpleDateFormat("EEE, MMM dd yyyy");
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            mRenderer.setWidth(width);
         }
 
         @Override
@@ -225,6 +172,7 @@ public class DigitialSunshineWatchFace extends CanvasWatchFaceService {
                 invalidate();
             } else {
                 unregisterReceiver();
+                mFrameStats.report("Invisible");
 
                 if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
                     Wearable.DataApi.removeListener(mGoogleApiClient, this);
@@ -275,11 +223,9 @@ public class DigitialSunshineWatchFace extends CanvasWatchFaceService {
         public void onAmbientModeChanged(boolean inAmbientMode) {
             super.onAmbientModeChanged(inAmbientMode);
             if (mAmbient != inAmbientMode) {
+                mFrameStats.report(inAmbientMode ? "Interactive" : "Ambient");
                 mAmbient = inAmbientMode;
-                if (mLowBitAmbient) {
-                    hour_textView.getPaint().setAntiAlias(!inAmbientMode);
-                    minute_textView.getPaint().setAntiAlias(!inAmbientMode);
-                }
+                mRenderer.setAmbient(inAmbientMode, mLowBitAmbient);
                 invalidate();
             }
 
@@ -308,43 +254,28 @@ public class DigitialSunshineWatchFace extends CanvasWatchFaceService {
             invalidate();
         }
 
+        /**
+         * Draws the face with {@link WatchFaceRenderer}, which only updates the parts of the face
+         * that changed since the last frame and allocates nothing.
+         */
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-                weatherIcon_imageView.setVisibility(View.GONE);
-                tempHigh_textView.setVisibility(View.GONE);
-                tempLow_textView.setVisibility(View.GONE);
-            } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-                weatherIcon_imageView.setVisibility(View.VISIBLE);
-                tempHigh_textView.setVisibility(View.VISIBLE);
-                tempLow_textView.setVisibility(View.VISIBLE);
-            }
+            long frameStart = System.nanoTime();
 
-            // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
             long now = System.currentTimeMillis();
             mCalendar.setTimeInMillis(now);
-            mDate.setTime(now);
 
-            String hour = String.format("%02d", mCalendar.get(Calendar.HOUR_OF_DAY));
-            String minutes = String.format("%02d", mCalendar.get(Calendar.MINUTE));
-
-            mDateString = simpleDateFormat.format(mDate);
-
-            hour_textView.setText(hour);
-            minute_textView.setText(minutes);
-            date_textView.setText(mDateString.toUpperCase());
-            weatherIcon_imageView.setImageResource(mIconID);
-            tempHigh_textView.setText(mMaxTemp);
-            tempLow_textView.setText(mMinTemp);
+            /* The forecast holds several days, so show the next one once the day is over */
+            long today = (now + mCalendar.getTimeZone().getOffset(now))
+                    / TimeUnit.DAYS.toMillis(1);
+            if (today != mWeatherDay) {
+                showWeatherOfDay(today);
+            }
 
-            mWatchfaceLayout.measure(specW, specH);
-            mWatchfaceLayout.layout(0, 0, mWatchfaceLayout.getMeasuredWidth(),
-                    mWatchfaceLayout.getMeasuredHeight());
+            mRenderer.setTime(mCalendar);
+            mRenderer.draw(canvas);
 
-            mWatchfaceLayout.draw(canvas);
+            mFrameStats.onFrame(System.nanoTime() - frameStart);
         }
 
         /**
@@ -367,14 +298,14 @@ public class DigitialSunshineWatchFace extends CanvasWatchFaceService {
         }
 
         /**
-         * Handle updating the time periodically in interactive mode.
+         * Handle updating the time periodically in interactive mode. The face is drawn, and the
+         * next update scheduled for when the face next changes, the start of the next minute.
          */
         private void handleUpdateTimeMessage() {
             invalidate();
             if (shouldTimerBeRunning()) {
-                long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
+                long delayMs = TickScheduler.millisUntilNextChange(System.currentTimeMillis(),
+                        mCalendar.getTimeZone());
                 mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
             }
         }
@@ -400,14 +331,37 @@ public class DigitialSunshineWatchFace extends CanvasWatchFaceService {
                             dataEvent.getDataItem()).getDataMap();
                     String path = dataEvent.getDataItem().getUri().getPath();
                     if(path.equals(WEATHER_DATA_PATH)){
-                        mMinTemp = dataMap.getString(WEATHER_MIN_DATA_KEY).trim();
-                        mMaxTemp = dataMap.getString(WEATHER_MAX_DATA_KEY).trim();
-                        mIconID = getSmallArtResourceIdForWeatherCondition(dataMap.getInt(ICON_ID_DATA_KEY));
+                        if (!mForecast.decode(dataMap.getByteArray(FORECAST_DATA_KEY))) {
+                            /* The old forecast is gone too, so its weather mustn't stay */
+                            mRenderer.clearWeather();
+                        }
+                        /* Pick the day to show again on the next draw */
+                        mWeatherDay = -1;
                     }
                 }
             }
             invalidate();
         }
+
+        /**
+         * Shows the weather the forecast holds for a day, or no weather at all if it holds none,
+         * rather than that of an earlier day. This only happens once a day or forecast, rather
+         * than on every draw.
+         *
+         * @param dayOfEpoch The day, in days since the epoch in the local time zone
+         */
+        private void showWeatherOfDay(long dayOfEpoch) {
+            mWeatherDay = dayOfEpoch;
+            int index = mForecast.indexOfDay(dayOfEpoch);
+            if (index < 0) {
+                mRenderer.clearWeather();
+                return;
+            }
+            mRenderer.setWeather(
+                    getSmallArtResourceIdForWeatherCondition(mForecast.getWeatherId(index)),
+                    mForecast.getHigh(index),
+                    mForecast.getLow(index));
+        }
     }
 
     /**
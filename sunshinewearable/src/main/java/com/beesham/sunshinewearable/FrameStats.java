@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.beesham.sunshinewearable;
+
+import android.os.Build;
+import android.os.Debug;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long the watch face takes to draw its frames, and how many garbage collections
+ * happen while it does. The numbers are logged under the "FrameStats" tag whenever the face
+ * stops drawing for a while, when it turns invisible or switches between ambient and
+ * interactive mode, and are then reset.
+ * <p>
+ * Recording a frame only adds to a few fields; the garbage collection count is read when the
+ * numbers are logged, as reading it allocates.
+ */
+final class FrameStats {
+
+    private static final String TAG = "FrameStats";
+
+    /* The runtime statistic that counts garbage collections, available from Marshmallow on */
+    private static final String GC_COUNT_STAT = "art.gc.gc-count";
+
+    private int mFrameCount;
+    private long mTotalNanos;
+    private long mMaxNanos;
+    private long mGcCountAtStart = readGcCount();
+
+    /**
+     * Records a frame.
+     *
+     * @param nanos How long the frame took to draw
+     */
+    void onFrame(long nanos) {
+        mFrameCount++;
+        mTotalNanos += nanos;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+    }
+
+    /**
+     * Logs the frames recorded since the last report, and starts over.
+     *
+     * @param reason Why the numbers are reported, for the log
+     */
+    void report(String reason) {
+        if (mFrameCount > 0) {
+            long gcCount = readGcCount();
+            Log.i(TAG, reason + ": " + mFrameCount + " frames, avg "
+                    + TimeUnit.NANOSECONDS.toMicros(mTotalNanos / mFrameCount) + " us, max "
+                    + TimeUnit.NANOSECONDS.toMicros(mMaxNanos) + " us, "
+                    + (gcCount >= 0 && mGcCountAtStart >= 0
+                            ? (gcCount - mGcCountAtStart) + " GCs"
+                            : "GC count unavailable"));
+        }
+        mFrameCount = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+        mGcCountAtStart = readGcCount();
+    }
+
+    /**
+     * @return The number of garbage collections since the process started, or -1 if the runtime
+     * doesn't tell
+     */
+    private static long readGcCount() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return -1;
+        }
+        String gcCount = Debug.getRuntimeStat(GC_COUNT_STAT);
+        try {
+            return gcCount != null ? Long.parseLong(gcCount) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.beesham.sunshinewearable;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the watch face needs to be drawn again in interactive mode. The face shows hours
+ * and minutes, the date and the weather of the day, and all of those only change on a minute
+ * boundary of the local time: the date, and with it the day whose weather is shown, rolls over
+ * at midnight. A new forecast from the phone is drawn as soon as it arrives, so it doesn't need
+ * a tick of its own. So rather than waking up every second, the face sleeps until the next
+ * minute starts.
+ */
+final class TickScheduler {
+
+    static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private TickScheduler() {
+    }
+
+    /**
+     * @param nowMillis The current time
+     * @param zone      The time zone the face shows the time in
+     * @return How long to wait until the next change the face shows, between 1 ms and a minute.
+     * Call this again after every tick, a time zone change or a switch to interactive mode, so
+     * that the wait always starts from the current time and zone.
+     */
+    static long millisUntilNextChange(long nowMillis, TimeZone zone) {
+        long localMillis = nowMillis + zone.getOffset(nowMillis);
+        long intoMinute = ((localMillis % MINUTE_MILLIS) + MINUTE_MILLIS) % MINUTE_MILLIS;
+        return MINUTE_MILLIS - intoMinute;
+    }
+}
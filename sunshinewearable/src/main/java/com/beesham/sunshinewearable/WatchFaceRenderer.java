@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.beesham.sunshinewearable;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import java.text.DateFormatSymbols;
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * Draws the watch face straight to the canvas: the time, the date, a separator and the weather
+ * of the day, in the layout the face used to inflate. Every line of text is kept in a char buffer
+ * and measured when it changes, not when it is drawn, so drawing a frame allocates nothing.
+ * <p>
+ * The time digits only change once a minute and the rest far less often, so the buffers are only
+ * rewritten, and the text only measured again, for the parts that changed since the last frame.
+ * The date line and the weather block are rendered into bitmap layers, which are only rendered
+ * again when the weather or the date changes, or the face switches between ambient and
+ * interactive mode. Every other frame just draws the two layers and the time.
+ */
+final class WatchFaceRenderer {
+
+    private static final char DEGREE = '°';
+
+    private final Resources mResources;
+
+    private final Paint mBackgroundPaint = new Paint();
+    private final Paint mHourPaint = new Paint();
+    private final Paint mColonPaint = new Paint();
+    private final Paint mMinutePaint = new Paint();
+    private final Paint mDatePaint = new Paint();
+    private final Paint mSeparatorPaint = new Paint();
+    private final Paint mHighPaint = new Paint();
+    private final Paint mLowPaint = new Paint();
+    private final Paint mIconPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private final float mPaddingTop;
+    private final float mSeparatorWidth;
+    private final float mSeparatorHeight;
+    private final float mSeparatorMargin;
+
+    /* The vertical extent of the temperatures, above and below their baseline */
+    private final float mTemperatureAscent;
+    private final float mTemperatureDescent;
+
+    /* The names of the days and months, upper case, as the date line shows them */
+    private final String[] mWeekdays;
+    private final String[] mMonths;
+
+    /* The time, as two digits of hours and two of minutes */
+    private final char[] mHour = new char[2];
+    private final char[] mMinute = new char[2];
+    private float mHourWidth;
+    private final float mColonWidth;
+    private float mMinuteWidth;
+    private int mShownHour = -1;
+    private int mShownMinute = -1;
+
+    /* The date line, such as "FRI, JUL 14 2017" */
+    private final char[] mDate = new char[64];
+    private int mDateLength;
+    private float mDateWidth;
+    private int mShownYear = -1;
+    private int mShownDayOfYear = -1;
+
+    /* The weather of the day, if there is any */
+    private boolean mHasWeather;
+    private int mIconResId;
+    private Bitmap mIcon;
+    private final char[] mHigh = new char[12];
+    private int mHighLength;
+    private float mHighWidth;
+    private final char[] mLow = new char[12];
+    private int mLowLength;
+    private float mLowWidth;
+
+    /* Where the lines go, computed from the size of the surface */
+    private int mWidth;
+    private float mTimeBaseline;
+    private float mDateTop;
+    private float mSeparatorTop;
+    private float mWeatherTop;
+
+    private final Layer mDateLayer = new Layer();
+    private final Layer mWeatherLayer = new Layer();
+
+    private boolean mAmbient;
+
+    WatchFaceRenderer(Resources resources) {
+        mResources = resources;
+
+        mBackgroundPaint.setColor(resources.getColor(R.color.background));
+
+        int textColor = resources.getColor(R.color.digital_text);
+        Typeface thin = Typeface.create("sans-serif-thin", Typeface.NORMAL);
+        initTextPaint(mHourPaint, textColor, R.dimen.time_text_size, Typeface.DEFAULT);
+        initTextPaint(mColonPaint, textColor, R.dimen.colon_text_size, Typeface.DEFAULT);
+        initTextPaint(mMinutePaint, textColor, R.dimen.time_text_size, thin);
+        initTextPaint(mDatePaint, Color.WHITE, R.dimen.date_text_size, thin);
+        initTextPaint(mHighPaint, Color.WHITE, R.dimen.temperature_text_size, Typeface.DEFAULT);
+        initTextPaint(mLowPaint, Color.WHITE, R.dimen.temperature_text_size, thin);
+        mSeparatorPaint.setColor(resources.getColor(R.color.separator));
+
+        mPaddingTop = resources.getDimension(R.dimen.face_padding_top);
+        mSeparatorWidth = resources.getDimension(R.dimen.separator_width);
+        mSeparatorHeight = resources.getDimension(R.dimen.separator_height);
+        mSeparatorMargin = resources.getDimension(R.dimen.separator_margin);
+
+        mColonWidth = mColonPaint.measureText(":");
+
+        Paint.FontMetrics temperature = mHighPaint.getFontMetrics();
+        mTemperatureAscent = temperature.ascent;
+        mTemperatureDescent = temperature.descent;
+
+        DateFormatSymbols symbols = DateFormatSymbols.getInstance();
+        mWeekdays = toUpperCase(symbols.getShortWeekdays());
+        mMonths = toUpperCase(symbols.getShortMonths());
+    }
+
+    private void initTextPaint(Paint paint, int color, int sizeResId, Typeface typeface) {
+        paint.setColor(color);
+        paint.setTextSize(mResources.getDimension(sizeResId));
+        paint.setTypeface(typeface);
+        paint.setAntiAlias(true);
+    }
+
+    private static String[] toUpperCase(String[] names) {
+        String[] upperCase = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            upperCase[i] = names[i].toUpperCase(Locale.getDefault());
+        }
+        return upperCase;
+    }
+
+    /**
+     * Lays the face out for a surface of the given width. Everything is laid out from the top,
+     * so the height doesn't matter.
+     */
+    void setWidth(int width) {
+        mWidth = width;
+
+        float y = mPaddingTop;
+        Paint.FontMetrics time = mHourPaint.getFontMetrics();
+        mTimeBaseline = y - time.ascent;
+        y += time.descent - time.ascent;
+
+        Paint.FontMetrics date = mDatePaint.getFontMetrics();
+        mDateTop = y;
+        y += date.descent - date.ascent;
+
+        mSeparatorTop = y + mSeparatorMargin;
+        mWeatherTop = mSeparatorTop + mSeparatorHeight + mSeparatorMargin;
+
+        mDateLayer.invalidate();
+        mWeatherLayer.invalidate();
+    }
+
+    /**
+     * Switches between ambient and interactive mode. In ambient mode the face is black and the
+     * weather isn't drawn, and on low-bit displays the text isn't anti-aliased either.
+     */
+    void setAmbient(boolean ambient, boolean lowBitAmbient) {
+        mAmbient = ambient;
+        boolean antiAlias = !(ambient && lowBitAmbient);
+        mHourPaint.setAntiAlias(antiAlias);
+        mColonPaint.setAntiAlias(antiAlias);
+        mMinutePaint.setAntiAlias(antiAlias);
+        mDatePaint.setAntiAlias(antiAlias);
+
+        /* The layers have the background and the anti-aliasing of the mode baked in */
+        mDateLayer.invalidate();
+        mWeatherLayer.invalidate();
+    }
+
+    /**
+     * Shows the time and date of the calendar, updating only what changed.
+     */
+    void setTime(Calendar calendar) {
+        int hour = calendar.get(Calendar.HOUR_OF_DAY);
+        if (hour != mShownHour) {
+            mShownHour = hour;
+            writeTwoDigits(mHour, hour);
+            mHourWidth = mHourPaint.measureText(mHour, 0, mHour.length);
+        }
+
+        int minute = calendar.get(Calendar.MINUTE);
+        if (minute != mShownMinute) {
+            mShownMinute = minute;
+            writeTwoDigits(mMinute, minute);
+            mMinuteWidth = mMinutePaint.measureText(mMinute, 0, mMinute.length);
+        }
+
+        int year = calendar.get(Calendar.YEAR);
+        int dayOfYear = calendar.get(Calendar.DAY_OF_YEAR);
+        if (year != mShownYear || dayOfYear != mShownDayOfYear) {
+            mShownYear = year;
+            mShownDayOfYear = dayOfYear;
+
+            /* EEE, MMM dd yyyy */
+            int length = writeString(mDate, 0, mWeekdays[calendar.get(Calendar.DAY_OF_WEEK)]);
+            length = writeString(mDate, length, ", ");
+            length = writeString(mDate, length, mMonths[calendar.get(Calendar.MONTH)]);
+            mDate[length++] = ' ';
+            length = writeInt(mDate, length, calendar.get(Calendar.DAY_OF_MONTH), 2);
+            mDate[length++] = ' ';
+            length = writeInt(mDate, length, year, 4);
+            mDateLength = length;
+            mDateWidth = mDatePaint.measureText(mDate, 0, mDateLength);
+            mDateLayer.invalidate();
+        }
+    }
+
+    /**
+     * Shows the weather of the day.
+     *
+     * @param iconResId The icon of the weather
+     * @param high      The high, in whole degrees as the phone shows it
+     * @param low       The low, in whole degrees as the phone shows it
+     */
+    void setWeather(int iconResId, int high, int low) {
+        if (iconResId != mIconResId || mIcon == null) {
+            mIconResId = iconResId;
+            mIcon = BitmapFactory.decodeResource(mResources, iconResId);
+        }
+
+        mHighLength = writeTemperature(mHigh, high);
+        mHighWidth = mHighPaint.measureText(mHigh, 0, mHighLength);
+        mLowLength = writeTemperature(mLow, low);
+        mLowWidth = mLowPaint.measureText(mLow, 0, mLowLength);
+        mHasWeather = true;
+        mWeatherLayer.invalidate();
+    }
+
+    /**
+     * Stops showing the weather, for a day the forecast doesn't cover.
+     */
+    void clearWeather() {
+        mHasWeather = false;
+        mWeatherLayer.invalidate();
+    }
+
+    /**
+     * Draws the face, rendering the layers again first if they are out of date.
+     */
+    void draw(Canvas canvas) {
+        if (mWidth == 0) {
+            return;
+        }
+        canvas.drawColor(getBackgroundColor());
+
+        float x = (mWidth - mHourWidth - mColonWidth - mMinuteWidth) / 2;
+        canvas.drawText(mHour, 0, mHour.length, x, mTimeBaseline, mHourPaint);
+        x += mHourWidth;
+        canvas.drawText(":", x, mTimeBaseline, mColonPaint);
+        x += mColonWidth;
+        canvas.drawText(mMinute, 0, mMinute.length, x, mTimeBaseline, mMinutePaint);
+
+        if (mDateLayer.isInvalid()) {
+            renderDateLayer();
+        }
+        canvas.drawBitmap(mDateLayer.mBitmap, 0, mDateTop, null);
+
+        float separatorLeft = (mWidth - mSeparatorWidth) / 2;
+        canvas.drawRect(separatorLeft, mSeparatorTop, separatorLeft + mSeparatorWidth,
+                mSeparatorTop + mSeparatorHeight, mSeparatorPaint);
+
+        if (!mAmbient && mHasWeather) {
+            if (mWeatherLayer.isInvalid()) {
+                renderWeatherLayer();
+            }
+            canvas.drawBitmap(mWeatherLayer.mBitmap, 0, mWeatherTop, null);
+        }
+    }
+
+    private int getBackgroundColor() {
+        return mAmbient ? Color.BLACK : mBackgroundPaint.getColor();
+    }
+
+    private void renderDateLayer() {
+        Paint.FontMetrics metrics = mDatePaint.getFontMetrics();
+        Canvas canvas = mDateLayer.prepare(mWidth,
+                (int) Math.ceil(metrics.descent - metrics.ascent), getBackgroundColor());
+        canvas.drawText(mDate, 0, mDateLength, (mWidth - mDateWidth) / 2, -metrics.ascent,
+                mDatePaint);
+    }
+
+    private void renderWeatherLayer() {
+        int iconWidth = mIcon != null ? mIcon.getWidth() : 0;
+        int iconHeight = mIcon != null ? mIcon.getHeight() : 0;
+
+        float textHeight = mTemperatureDescent - mTemperatureAscent;
+        float rowHeight = Math.max(iconHeight, textHeight);
+        Canvas canvas = mWeatherLayer.prepare(mWidth, (int) Math.ceil(rowHeight),
+                getBackgroundColor());
+
+        float x = (mWidth - iconWidth - mHighWidth - mLowWidth) / 2;
+        if (mIcon != null) {
+            canvas.drawBitmap(mIcon, x, (rowHeight - iconHeight) / 2, mIconPaint);
+        }
+        x += iconWidth;
+
+        float baseline = (rowHeight - textHeight) / 2 - mTemperatureAscent;
+        canvas.drawText(mHigh, 0, mHighLength, x, baseline, mHighPaint);
+        x += mHighWidth;
+        canvas.drawText(mLow, 0, mLowLength, x, baseline, mLowPaint);
+    }
+
+    /**
+     * Writes a temperature, which the phone already rounded, and a degree sign.
+     *
+     * @return The number of chars written
+     */
+    private static int writeTemperature(char[] buffer, int degrees) {
+        int length = writeInt(buffer, 0, degrees, 1);
+        buffer[length++] = DEGREE;
+        return length;
+    }
+
+    private static void writeTwoDigits(char[] buffer, int value) {
+        buffer[0] = (char) ('0' + value / 10);
+        buffer[1] = (char) ('0' + value % 10);
+    }
+
+    /**
+     * Writes a string into a buffer.
+     *
+     * @return The offset after the string
+     */
+    private static int writeString(char[] buffer, int offset, String value) {
+        int length = Math.min(value.length(), buffer.length - offset);
+        value.getChars(0, length, buffer, offset);
+        return offset + length;
+    }
+
+    /**
+     * A part of the face that is rendered into a bitmap once, and then drawn from it until it is
+     * invalidated. The bitmap is only replaced when the size of the layer changes.
+     */
+    private static final class Layer {
+        Bitmap mBitmap;
+        private final Canvas mCanvas = new Canvas();
+        private boolean mInvalid = true;
+
+        void invalidate() {
+            mInvalid = true;
+        }
+
+        boolean isInvalid() {
+            return mInvalid || mBitmap == null;
+        }
+
+        /**
+         * @return A canvas to render the layer into, filled with the background color
+         */
+        Canvas prepare(int width, int height, int backgroundColor) {
+            width = Math.max(width, 1);
+            height = Math.max(height, 1);
+            if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+                if (mBitmap != null) {
+                    mBitmap.recycle();
+                }
+                mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mCanvas.setBitmap(mBitmap);
+            }
+            mCanvas.drawColor(backgroundColor);
+            mInvalid = false;
+            return mCanvas;
+        }
+    }
+
+    /**
+     * Writes an integer into a buffer, padded with zeros to a minimum number of digits.
+     *
+     * @return The offset after the integer
+     */
+    private static int writeInt(char[] buffer, int offset, int value, int minDigits) {
+        if (value < 0) {
+            buffer[offset++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + digits;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.beesham.sunshinewearable;
+
+/**
+ * The forecast the phone pushes, decoded from the compact payload of the phone's
+ * WearableForecastPayload, which describes the format. The constants here must match the ones
+ * there.
+ * <p>
+ * Decoding reuses the arrays of this object, so a forecast can be decoded as often as the phone
+ * sends one without allocating anything.
+ */
+final class WearableForecast {
+
+    private static final int FORMAT_VERSION = 2;
+    private static final int FLAG_FAHRENHEIT = 1;
+
+    /* The most days a payload holds */
+    static final int MAX_DAYS = 7;
+
+    private final int[] mWeatherIds = new int[MAX_DAYS];
+    private final int[] mHighs = new int[MAX_DAYS];
+    private final int[] mLows = new int[MAX_DAYS];
+
+    private long mFirstDayOfEpoch;
+    private int mDayCount;
+    private boolean mFahrenheit;
+
+    /* The read position in the payload being decoded */
+    private int mOffset;
+
+    /**
+     * Replaces the forecast with the one in a payload. If the payload can't be decoded, the
+     * forecast is left empty.
+     *
+     * @param payload The payload the phone sent
+     * @return true if the payload was decoded
+     */
+    boolean decode(byte[] payload) {
+        mDayCount = 0;
+        if (payload == null || payload.length < 4 || payload[0] != FORMAT_VERSION) {
+            return false;
+        }
+
+        mOffset = 1;
+        int flags = payload[mOffset++];
+        long firstDayOfEpoch = readVarint(payload);
+        int dayCount = mOffset < payload.length ? payload[mOffset++] & 0xFF : -1;
+        if (firstDayOfEpoch < 0 || dayCount < 0 || dayCount > MAX_DAYS) {
+            return false;
+        }
+
+        int weatherId = 0;
+        int high = 0;
+        for (int day = 0; day < dayCount; day++) {
+            long weatherIdDelta = readVarint(payload);
+            long highDelta = readVarint(payload);
+            long spread = readVarint(payload);
+            if (weatherIdDelta < 0 || highDelta < 0 || spread < 0) {
+                return false;
+            }
+            weatherId += unzigzag(weatherIdDelta);
+            high += unzigzag(highDelta);
+
+            mWeatherIds[day] = weatherId;
+            mHighs[day] = high;
+            mLows[day] = high - unzigzag(spread);
+        }
+
+        mFirstDayOfEpoch = firstDayOfEpoch;
+        mFahrenheit = (flags & FLAG_FAHRENHEIT) != 0;
+        mDayCount = dayCount;
+        return true;
+    }
+
+    /**
+     * @param dayOfEpoch A date, in days since the epoch, in the time zone of the phone
+     * @return The index of that day in the forecast, or -1 if the forecast doesn't cover it
+     */
+    int indexOfDay(long dayOfEpoch) {
+        long index = dayOfEpoch - mFirstDayOfEpoch;
+        return index >= 0 && index < mDayCount ? (int) index : -1;
+    }
+
+    int getDayCount() {
+        return mDayCount;
+    }
+
+    int getWeatherId(int index) {
+        return mWeatherIds[index];
+    }
+
+    /**
+     * @return The high of the day, in whole degrees of {@link #isFahrenheit()}'s unit, rounded
+     * as the phone shows it
+     */
+    int getHigh(int index) {
+        return mHighs[index];
+    }
+
+    /**
+     * @return The low of the day, in whole degrees of {@link #isFahrenheit()}'s unit, rounded as
+     * the phone shows it
+     */
+    int getLow(int index) {
+        return mLows[index];
+    }
+
+    boolean isFahrenheit() {
+        return mFahrenheit;
+    }
+
+    /**
+     * @return The varint at the read position, or -1 if the payload ends in the middle of it
+     */
+    private long readVarint(byte[] payload) {
+        long value = 0;
+        for (int shift = 0; shift < 64 && mOffset < payload.length; shift += 7) {
+            byte b = payload[mOffset++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    private static int unzigzag(long value) {
+        int n = (int) value;
+        return (n >>> 1) ^ -(n & 1);
+    }
+}
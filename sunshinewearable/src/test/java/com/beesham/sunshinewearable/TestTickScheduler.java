@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.beesham.sunshinewearable;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays an hour of the watch face's interactive mode, following the delays
+ * {@link TickScheduler} asks for, and counts how often the face is invalidated.
+ */
+public class TestTickScheduler {
+
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /* The face used to wake up every second */
+    private static final long LEGACY_UPDATE_RATE_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    /* Fri, 14 Jul 2017 15:29:37.250 UTC: in the middle of a second and a minute */
+    private static final long START_MILLIS = 1500046177250L;
+
+    /* Sun, 12 Mar 2017 06:30:00 UTC, half an hour before New York moves its clocks forward */
+    private static final long BEFORE_DST_MILLIS = 1489300200000L;
+
+    @Test
+    public void testInvalidatesOncePerMinute() {
+        TimeZone zone = TimeZone.getTimeZone("UTC");
+        int invalidations = simulateHour(START_MILLIS, zone);
+
+        /* The first tick right away, then one at the start of each of the 60 minutes */
+        assertEquals(61, invalidations);
+
+        int legacyInvalidations = (int) (HOUR_MILLIS / LEGACY_UPDATE_RATE_MILLIS);
+        assertTrue("The face should be drawn far less often than every second",
+                invalidations * 50 < legacyInvalidations);
+    }
+
+    @Test
+    public void testTicksOnLocalMinuteBoundaries() {
+        /* Nepal is 5:45 ahead of UTC, and Chatham 12:45 */
+        simulateHour(START_MILLIS, TimeZone.getTimeZone("Asia/Kathmandu"));
+        simulateHour(START_MILLIS, TimeZone.getTimeZone("Pacific/Chatham"));
+    }
+
+    @Test
+    public void testTicksThroughDaylightSavingTime() {
+        TimeZone zone = TimeZone.getTimeZone("America/New_York");
+        assertEquals(60, simulateHour(BEFORE_DST_MILLIS, zone));
+    }
+
+    @Test
+    public void testDelayIsNeverZero() {
+        TimeZone zone = TimeZone.getTimeZone("UTC");
+        long onBoundary = START_MILLIS - START_MILLIS % TickScheduler.MINUTE_MILLIS;
+        assertEquals(TickScheduler.MINUTE_MILLIS,
+                TickScheduler.millisUntilNextChange(onBoundary, zone));
+        assertEquals(1, TickScheduler.millisUntilNextChange(onBoundary - 1, zone));
+    }
+
+    /**
+     * Runs the face for an hour: it is invalidated when it becomes visible, and then every time
+     * the update message it scheduled arrives. Checks that every tick after the first lands on
+     * a minute boundary of the local time.
+     *
+     * @return The number of times the face was invalidated
+     */
+    private static int simulateHour(long startMillis, TimeZone zone) {
+        int invalidations = 0;
+        long now = startMillis;
+        while (now < startMillis + HOUR_MILLIS) {
+            invalidations++;
+            if (now != startMillis) {
+                long localMillis = now + zone.getOffset(now);
+                assertEquals("Tick at " + now + " isn't on a minute boundary in " + zone.getID(),
+                        0, localMillis % TickScheduler.MINUTE_MILLIS);
+            }
+            long delay = TickScheduler.millisUntilNextChange(now, zone);
+            assertTrue(delay > 0 && delay <= TickScheduler.MINUTE_MILLIS);
+            now += delay;
+        }
+        return invalidations;
+    }
+}